@@ -1,6 +1,7 @@
 package com.atemukesu.extendednoteblock;
 
 import com.atemukesu.extendednoteblock.screen.ModScreenHandlers;
+import com.atemukesu.extendednoteblock.sound.ClientSoundManager;
 import com.atemukesu.extendednoteblock.sound.SoundPackManager;
 
 import net.fabricmc.api.ClientModInitializer;
@@ -17,5 +18,6 @@ public class ExtendedNoteBlockClient implements ClientModInitializer {
 		ConfigManager.initialize();
 		SoundPackManager.getInstance().scanPacks();
 		ClientModMessages.registerS2CPackets();
+		ClientSoundManager.initialize();
 	}
 }
\ No newline at end of file
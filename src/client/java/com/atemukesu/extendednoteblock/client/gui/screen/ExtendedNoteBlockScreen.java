@@ -1,7 +1,10 @@
 package com.atemukesu.extendednoteblock.client.gui.screen;
 
+import com.atemukesu.extendednoteblock.block.entity.ExtendedNoteBlockEntity;
+import com.atemukesu.extendednoteblock.block.entity.NoteConfig;
 import com.atemukesu.extendednoteblock.client.gui.widget.ComboBoxWidget;
 import com.atemukesu.extendednoteblock.map.InstrumentMap;
+import com.atemukesu.extendednoteblock.network.BulkUpdateNoteBlocksPacket;
 import com.atemukesu.extendednoteblock.network.ModMessages;
 import com.atemukesu.extendednoteblock.screen.ExtendedNoteBlockScreenHandler;
 import net.fabricmc.api.EnvType;
@@ -11,6 +14,8 @@ import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.ingame.HandledScreen;
 import net.minecraft.client.gui.screen.narration.NarrationMessageBuilder;
+import net.minecraft.client.gui.tooltip.Tooltip;
+import net.minecraft.client.gui.widget.ButtonWidget;
 import net.minecraft.client.gui.widget.ClickableWidget;
 import net.minecraft.client.gui.widget.TextFieldWidget;
 import net.minecraft.client.sound.PositionedSoundInstance;
@@ -18,8 +23,10 @@ import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.sound.SoundEvents;
 import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -29,16 +36,23 @@ import java.util.function.Consumer;
  * <p>
  * 该屏幕允许玩家修改扩展音符盒的各种属性，包括：
  * <ul>
- * <li><b>音符(Note):</b> 通过一个可交互的钢琴键盘部件选择 MIDI 音符 (0-127)。</li>
+ * <li><b>音符(Note):</b> 通过一个可交互的钢琴键盘部件选择 MIDI 音符 (0-127)，按住 Shift 点击可以选择多个音符组成和弦。</li>
  * <li><b>乐器(Instrument):</b> 通过一个下拉组合框选择 General MIDI 乐器。</li>
  * <li><b>力度(Velocity):</b> 通过文本框设置音符的力度。</li>
  * <li><b>延音(Sustain):</b> 通过文本框设置音符的延音时长（以游戏刻为单位）。</li>
  * <li><b>延迟播放时间(DelayedPlayingTime):</b> 通过文本框设置在接收到红石信号之后延迟多久播放音符 (以 ms 为单位)。
  * </ul>
  * 当屏幕关闭时，所有更改都会通过网络数据包发送到服务器。
+ * <p>
+ * 创造模式的玩家还可以把打开屏幕以来修改过的属性应用到周围指定半径内的所有扩展音符盒
+ * (见 {@link BulkUpdateNoteBlocksPacket})。音高的修改作为移调发送，其他音符盒的和弦随之移动，
+ * 和弦本身的修改不会应用到其他音符盒。
  */
 @Environment(EnvType.CLIENT)
 public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScreenHandler> {
+    // 批量修改的默认半径和最大半径，最大半径使区域不超过 BulkUpdateNoteBlocksPacket.MAX_REGION_CHUNKS
+    private static final int DEFAULT_BULK_RADIUS = 8;
+    private static final int MAX_BULK_RADIUS = 48;
     private int note;
     private int velocity;
     private int sustain;
@@ -46,6 +60,13 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
     private int delayedPlayingTime;
     private int fadeInTime;
     private int fadeOutTime;
+    // 和弦中除主音符以外被选中的音符及其力度
+    private final boolean[] chordSelected = new boolean[128];
+    private final int[] chordVelocities = new int[128];
+    private int chordSize;
+    // 上次批量修改时 (或打开屏幕时) 的属性，批量修改只发送此后改变的属性
+    private int[] appliedValues;
+    private int appliedInstrumentId;
     private TextFieldWidget velocityField;
     private TextFieldWidget sustainField;
     private TextFieldWidget delayField;
@@ -53,6 +74,8 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
     private TextFieldWidget fadeOutField;
     private ComboBoxWidget<InstrumentOption> instrumentComboBox;
     private PianoWidget pianoWidget;
+    private TextFieldWidget bulkRadiusField;
+    private ButtonWidget bulkApplyButton;
     private Text hoveredKeyText = Text.empty();
 
     /**
@@ -112,6 +135,48 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
         this.delayedPlayingTime = handler.getDelayedPlayingTime();
         this.fadeInTime = handler.getFadeInTime();
         this.fadeOutTime = handler.getFadeOutTime();
+        for (int packed : handler.getChord()) {
+            int chordNote = ExtendedNoteBlockEntity.chordNote(packed);
+            if (chordNote < 128 && chordNote != this.note && !this.chordSelected[chordNote]) {
+                this.chordSelected[chordNote] = true;
+                this.chordVelocities[chordNote] = ExtendedNoteBlockEntity.chordVelocity(packed);
+                this.chordSize++;
+            }
+        }
+        this.appliedValues = normalizedValues();
+        this.appliedInstrumentId = MathHelper.clamp(this.instrumentId, 0, 128);
+    }
+
+    /**
+     * 切换一个音符是否属于和弦。主音符不能被移除，和弦已满时不能再添加。
+     * 新加入的音符使用当前的力度。
+     *
+     * @return 如果和弦发生了变化，返回 {@code true}。
+     */
+    private boolean toggleChordNote(int key) {
+        if (key == this.note) {
+            return false;
+        }
+        if (this.chordSelected[key]) {
+            this.chordSelected[key] = false;
+            this.chordSize--;
+            return true;
+        }
+        if (this.chordSize + 1 >= ExtendedNoteBlockEntity.MAX_CHORD_SIZE) {
+            return false;
+        }
+        this.chordSelected[key] = true;
+        this.chordVelocities[key] = this.velocity;
+        this.chordSize++;
+        return true;
+    }
+
+    /**
+     * 清除和弦中的其他音符，只保留主音符。
+     */
+    private void clearChord() {
+        Arrays.fill(this.chordSelected, false);
+        this.chordSize = 0;
     }
 
     /**
@@ -198,6 +263,25 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
             this.fadeOutTime = parseInteger(text, 0, 400, this.fadeOutTime);
         });
         this.addDrawableChild(this.fadeOutField);
+
+        // 批量修改：标题行右侧的半径输入框和按钮，只对创造模式的玩家显示
+        final int BULK_BUTTON_WIDTH = 120;
+        final int BULK_RADIUS_WIDTH = 30;
+        boolean creative = this.client != null && this.client.player != null && this.client.player.isCreative();
+        int bulkButtonX = topControlsX + topControlsWidth - BULK_BUTTON_WIDTH;
+        this.bulkApplyButton = ButtonWidget.builder(Text.translatable("gui.extendednoteblock.bulk_update.apply"),
+                button -> sendBulkUpdatePacket())
+                .dimensions(bulkButtonX, 2, BULK_BUTTON_WIDTH, 16)
+                .tooltip(Tooltip.of(Text.translatable("gui.extendednoteblock.bulk_update.apply.tooltip")))
+                .build();
+        this.bulkApplyButton.visible = creative;
+        this.addDrawableChild(this.bulkApplyButton);
+        this.bulkRadiusField = new TextFieldWidget(this.textRenderer, bulkButtonX - PADDING / 2 - BULK_RADIUS_WIDTH, 2,
+                BULK_RADIUS_WIDTH, 16, Text.translatable("gui.extendednoteblock.bulk_update.radius"));
+        this.bulkRadiusField.setMaxLength(2);
+        this.bulkRadiusField.setText(String.valueOf(DEFAULT_BULK_RADIUS));
+        this.bulkRadiusField.visible = creative;
+        this.addDrawableChild(this.bulkRadiusField);
     }
 
     /**
@@ -288,7 +372,8 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
     /**
      * 一个自定义的可点击部件，用于渲染一个可滚动的钢琴键盘。
      * <p>
-     * 用户可以通过点击琴键来选择一个音符，或者通过滚动条和鼠标滚轮来浏览全部 128 个 MIDI 音符。
+     * 用户可以通过点击琴键来选择一个音符，按住 Shift 点击来添加或移除和弦中的其他音符，
+     * 或者通过滚动条和鼠标滚轮来浏览全部 128 个 MIDI 音符。
      * 它通过回调函数与父屏幕通信，以更新所选音符和悬停信息。
      */
     private class PianoWidget extends ClickableWidget {
@@ -428,6 +513,8 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
                         int color = 0xFFFFFFFF;
                         if (i == ExtendedNoteBlockScreen.this.note)
                             color = 0xFF5555FF; // 选中颜色
+                        else if (chordSelected[i])
+                            color = 0xFF99BBFF; // 和弦音颜色
                         else if (i == hoveredKey)
                             color = 0xFFCCCCCC; // 悬停颜色
                         context.fill(keyX, top, keyX + whiteKeyWidth, top + this.height, 0xFF000000);
@@ -447,6 +534,8 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
                         int color = 0xFF202020;
                         if (i == ExtendedNoteBlockScreen.this.note)
                             color = 0xFF0000AA; // 选中颜色
+                        else if (chordSelected[i])
+                            color = 0xFF3355AA; // 和弦音颜色
                         else if (i == hoveredKey)
                             color = 0xFF505050; // 悬停颜色
                         context.fill(keyX, top, keyX + blackKeyWidth, top + blackKeyHeight, color);
@@ -500,14 +589,25 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
          * {@inheritDoc}
          * <p>
          * 当点击一个琴键时，调用 {@code onNoteSelect} 回调，播放点击音效，并关闭屏幕。
+         * 按住 Shift 点击时只切换该音符是否属于和弦，不关闭屏幕。
+         * 创造模式下显示批量修改按钮时也不关闭屏幕。
          */
         @Override
         public void onClick(double mouseX, double mouseY) {
             int key = getHoveredKey(mouseX, mouseY);
-            if (key != -1) {
+            if (key != -1 && hasShiftDown()) {
+                if (toggleChordNote(key)) {
+                    client.getSoundManager().play(PositionedSoundInstance.master(SoundEvents.UI_BUTTON_CLICK, 1.0F));
+                }
+            } else if (key != -1) {
+                // 普通点击只选择这一个音符
+                clearChord();
                 onNoteSelect.accept(key);
                 client.getSoundManager().play(PositionedSoundInstance.master(SoundEvents.UI_BUTTON_CLICK, 1.0F));
-                ExtendedNoteBlockScreen.this.close(); // 选中音符后直接关闭界面
+                // 选中音符后直接关闭界面；显示批量修改时保持打开，以便把移调应用到附近的音符盒
+                if (!ExtendedNoteBlockScreen.this.bulkApplyButton.visible) {
+                    ExtendedNoteBlockScreen.this.close();
+                }
             }
         }
 
@@ -657,6 +757,18 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
         context.drawTextWithShadow(textRenderer, Text.translatable("gui.extendednoteblock.fadeout_time.info"),
                 this.fadeOutField.getX() + 4, this.fadeOutField.getY() + this.fadeOutField.getHeight() + 4, 0x808080);
 
+        if (this.bulkRadiusField.visible) {
+            Text radiusLabel = Text.translatable("gui.extendednoteblock.bulk_update.radius");
+            context.drawTextWithShadow(textRenderer, radiusLabel,
+                    this.bulkRadiusField.getX() - textRenderer.getWidth(radiusLabel) - 4,
+                    this.bulkRadiusField.getY() + 4, 0xA0A0A0);
+        }
+
+        // 绘制钢琴下方的和弦提示
+        context.drawCenteredTextWithShadow(textRenderer,
+                Text.translatable("gui.extendednoteblock.piano.chord_hint", this.chordSize + 1,
+                        ExtendedNoteBlockEntity.MAX_CHORD_SIZE),
+                this.width / 2, this.height - 30, 0x808080);
         // 绘制底部中央的悬停提示
         context.drawCenteredTextWithShadow(textRenderer, this.hoveredKeyText, this.width / 2, this.height - 20,
                 0xFFFFFF);
@@ -703,45 +815,55 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
         }
     }
 
+    /**
+     * 获取限制在有效范围内的六个数值属性，按 {@link NoteConfig#NOTE} 等常量索引。
+     * 淡入和淡出时间被限制为总和小于延音时长的 80%。
+     */
+    private int[] normalizedValues() {
+        int finalNote = MathHelper.clamp(this.note, 0, 127);
+        int finalVelocity = MathHelper.clamp(this.velocity, 0, 127);
+        int finalSustain = MathHelper.clamp(this.sustain, 0, 400);
+        int finalDelayedPlayingTime = MathHelper.clamp(this.delayedPlayingTime, 0, 5000);
+        int finalFadeIn = MathHelper.clamp(this.fadeInTime, 0, 400);
+        int finalFadeOut = MathHelper.clamp(this.fadeOutTime, 0, 400);
+
+        int maxAllowedSum = (finalSustain * 8) / 10; // 计算80%的阈值
+
+        // 首先确保淡入时间自身不超过限制。
+        // 如果淡入时间大于或等于80%的阈值，则将其强制设置为阈值减1。
+        // 使用 Math.max(0, ...) 来处理 sustain 过小导致阈值为0的情况。
+        if (finalFadeIn >= maxAllowedSum) {
+            finalFadeIn = Math.max(0, maxAllowedSum - 1);
+        }
+
+        // 步骤2：在调整了淡入时间后，再检查总和并调整淡出时间。
+        // 确保总和严格小于80%的阈值。
+        if (finalFadeIn + finalFadeOut >= maxAllowedSum) {
+            // 同样，确保淡出时间不会被设置为负数。
+            finalFadeOut = Math.max(0, maxAllowedSum - finalFadeIn - 1);
+        }
+        return new int[] { finalNote, finalVelocity, finalSustain, finalDelayedPlayingTime, finalFadeIn,
+                finalFadeOut };
+    }
+
     /**
      * 创建一个包含所有更新后音符盒属性的网络数据包，并将其发送到服务器。
      */
     private void sendUpdatePacket() {
         try {
-
-            int finalNote = MathHelper.clamp(this.note, 0, 127);
-            int finalVelocity = MathHelper.clamp(this.velocity, 0, 127);
-            int finalSustain = MathHelper.clamp(this.sustain, 0, 400);
-            int finalDelayedPlayingTime = MathHelper.clamp(this.delayedPlayingTime, 0, 5000);
+            int[] values = normalizedValues();
             int finalInstrumentId = MathHelper.clamp(this.instrumentId, 0, 128);
-            int finalFadeIn = MathHelper.clamp(this.fadeInTime, 0, 400);
-            int finalFadeOut = MathHelper.clamp(this.fadeOutTime, 0, 400);
-
-            int maxAllowedSum = (finalSustain * 8) / 10; // 计算80%的阈值
-
-            // 首先确保淡入时间自身不超过限制。
-            // 如果淡入时间大于或等于80%的阈值，则将其强制设置为阈值减1。
-            // 使用 Math.max(0, ...) 来处理 sustain 过小导致阈值为0的情况。
-            if (finalFadeIn >= maxAllowedSum) {
-                finalFadeIn = Math.max(0, maxAllowedSum - 1);
-            }
-
-            // 步骤2：在调整了淡入时间后，再检查总和并调整淡出时间。
-            // 确保总和严格小于80%的阈值。
-            if (finalFadeIn + finalFadeOut >= maxAllowedSum) {
-                // 同样，确保淡出时间不会被设置为负数。
-                finalFadeOut = Math.max(0, maxAllowedSum - finalFadeIn - 1);
-            }
 
             PacketByteBuf buf = PacketByteBufs.create();
             buf.writeBlockPos(this.handler.blockPos);
-            buf.writeInt(finalNote);
-            buf.writeInt(finalVelocity);
-            buf.writeInt(finalSustain);
-            buf.writeInt(finalDelayedPlayingTime);
-            buf.writeInt(finalFadeIn);
-            buf.writeInt(finalFadeOut);
+            buf.writeInt(values[NoteConfig.NOTE]);
+            buf.writeInt(values[NoteConfig.VELOCITY]);
+            buf.writeInt(values[NoteConfig.SUSTAIN]);
+            buf.writeInt(values[NoteConfig.DELAY]);
+            buf.writeInt(values[NoteConfig.FADE_IN]);
+            buf.writeInt(values[NoteConfig.FADE_OUT]);
             buf.writeInt(finalInstrumentId);
+            buf.writeIntArray(buildChord());
 
             ClientPlayNetworking.send(ModMessages.UPDATE_NOTE_BLOCK_ID, buf);
 
@@ -750,6 +872,52 @@ public class ExtendedNoteBlockScreen extends HandledScreen<ExtendedNoteBlockScre
         }
     }
 
+    /**
+     * 把上次批量修改 (或打开屏幕) 以来改变的属性应用到以此音符盒为中心、指定半径内的所有扩展音符盒。
+     * 音高的改变作为移调的半音数发送。没有改变的属性时不发送。
+     */
+    private void sendBulkUpdatePacket() {
+        int[] values = normalizedValues();
+        int finalInstrumentId = MathHelper.clamp(this.instrumentId, 0, 128);
+        int fields = 0;
+        for (int i = 0; i < NoteConfig.PROPERTY_COUNT; i++) {
+            if (values[i] != this.appliedValues[i]) {
+                fields |= 1 << i;
+            }
+        }
+        if (finalInstrumentId != this.appliedInstrumentId) {
+            fields |= BulkUpdateNoteBlocksPacket.FIELD_INSTRUMENT;
+        }
+        if (fields == 0) {
+            return;
+        }
+        int[] editValues = values.clone();
+        editValues[NoteConfig.NOTE] = values[NoteConfig.NOTE] - this.appliedValues[NoteConfig.NOTE];
+        int radius = parseInteger(this.bulkRadiusField.getText(), 1, MAX_BULK_RADIUS, DEFAULT_BULK_RADIUS);
+        BlockPos center = this.handler.blockPos;
+        PacketByteBuf buf = PacketByteBufs.create();
+        BulkUpdateNoteBlocksPacket.writeRegion(buf, center.add(-radius, -radius, -radius),
+                center.add(radius, radius, radius),
+                new BulkUpdateNoteBlocksPacket.Edit(fields, true, editValues, new int[0], finalInstrumentId));
+        ClientPlayNetworking.send(ModMessages.BULK_UPDATE_NOTE_BLOCKS_ID, buf);
+        this.appliedValues = values;
+        this.appliedInstrumentId = finalInstrumentId;
+    }
+
+    /**
+     * 把被选中的和弦音打包为 {@code 音符 << 8 | 力度} 的数组，不包含主音符。
+     */
+    private int[] buildChord() {
+        int[] chord = new int[this.chordSize];
+        int count = 0;
+        for (int key = 0; key < 128 && count < chord.length; key++) {
+            if (this.chordSelected[key] && key != this.note) {
+                chord[count++] = ExtendedNoteBlockEntity.packChordNote(key, this.chordVelocities[key]);
+            }
+        }
+        return Arrays.copyOf(chord, count);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
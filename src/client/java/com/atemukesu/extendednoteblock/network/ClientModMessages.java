@@ -1,9 +1,11 @@
 package com.atemukesu.extendednoteblock.network;
 
 import com.atemukesu.extendednoteblock.sound.ClientSoundManager;
+import com.atemukesu.extendednoteblock.sound.SoundEnvelope;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.minecraft.network.PacketByteBuf;
 import net.minecraft.util.math.BlockPos;
-import java.util.UUID;
 
 /**
  * 负责在客户端注册所有 S2C (服务器到客户端) 数据包的接收器。
@@ -11,33 +13,38 @@ import java.util.UUID;
  * 这个类处理来自服务器的指令，例如播放或停止音符。
  */
 public class ClientModMessages {
+    /**
+     * 把声音事件包中的事件转交给 {@link ClientSoundManager}，只在客户端主线程上使用。
+     */
+    private static final SoundBundles.Handler SOUND_HANDLER = new SoundBundles.Handler() {
+        @Override
+        public void onStart(BlockPos pos, int soundId, int instrumentId, int note, int velocity, int sustainTicks,
+                int fadeInTicks, int fadeOutTicks, int startTick) {
+            ClientSoundManager.playSound(pos, soundId, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                    fadeOutTicks, startTick);
+        }
+
+        @Override
+        public void onVolume(int soundId, int quantizedVolume, int rampTicks) {
+            ClientSoundManager.updateVolume(soundId, SoundEnvelope.dequantizeVolume(quantizedVolume), rampTicks);
+        }
+
+        @Override
+        public void onStop(int soundId) {
+            ClientSoundManager.stopSound(soundId);
+        }
+    };
+
     /**
      * 在客户端注册所有 S2C 数据包的接收逻辑。
      * 这个方法应该在模组的客户端初始化阶段被调用。
      */
     public static void registerS2CPackets() {
-        ClientPlayNetworking.registerGlobalReceiver(ModMessages.START_SOUND_ID,
-                (client, handler, buf, responseSender) -> {
-                    BlockPos pos = buf.readBlockPos();
-                    UUID soundId = buf.readUuid();
-                    int instrumentId = buf.readInt();
-                    int note = buf.readInt();
-                    int velocity = buf.readInt();
-                    float initialVolume = buf.readFloat(); // 获取初始音量
-                    client.execute(() -> ClientSoundManager.playSound(pos, soundId, instrumentId, note, velocity, initialVolume));
-                });
-
-        ClientPlayNetworking.registerGlobalReceiver(ModMessages.UPDATE_VOLUME_ID,
-                (client, handler, buf, responseSender) -> {
-                    UUID soundId = buf.readUuid();
-                    float volume = buf.readFloat();
-                    client.execute(() -> ClientSoundManager.updateVolume(soundId, volume));
-                });
-
-        ClientPlayNetworking.registerGlobalReceiver(ModMessages.STOP_SOUND_ID,
+        ClientPlayNetworking.registerGlobalReceiver(ModMessages.SOUND_BUNDLE_ID,
                 (client, handler, buf, responseSender) -> {
-                    UUID soundId = buf.readUuid();
-                    client.execute(() -> ClientSoundManager.stopSound(soundId));
+                    // 接收缓冲区在回调返回后会被释放，复制一份后在主线程上一次性解码并应用整个事件包
+                    PacketByteBuf bundle = PacketByteBufs.copy(buf);
+                    client.execute(() -> SoundBundles.read(bundle, SOUND_HANDLER));
                 });
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,41 @@
 package com.atemukesu.extendednoteblock.sound;
 
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.sound.SoundCategory;
 import net.minecraft.sound.SoundEvent;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 public class ClientSoundManager {
-    private static final Map<UUID, StoppablePositionalSoundInstance> PLAYING_SOUNDS = new ConcurrentHashMap<>();
+    // 以服务器分配的声音句柄为键，只在客户端主线程上访问
+    private static final Int2ObjectMap<StoppablePositionalSoundInstance> PLAYING_SOUNDS = new Int2ObjectOpenHashMap<>();
+    // 按打包后的方块位置索引声音句柄，与 PLAYING_SOUNDS 保持同步
+    private static final Long2ObjectMap<IntArrayList> SOUNDS_BY_POS = new Long2ObjectOpenHashMap<>();
     private static final int DRUM_KIT_INSTRUMENT_ID = 128;
 
-    public static void playSound(BlockPos pos, UUID soundId, int instrumentId, int note, int velocity,
-            float initialVolume) {
+    /**
+     * 注册客户端事件。
+     * 服务器不再为自然结束的声音发送停止数据包，因此需要定期清理已经结束的声音实例。
+     */
+    public static void initialize() {
+        ClientTickEvents.END_CLIENT_TICK.register(client -> pruneFinishedSounds());
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(ClientSoundManager::stopAll));
+    }
+
+    /**
+     * 开始播放一个声音。音量包络由声音实例在每个客户端刻本地计算。
+     *
+     * @param startTick 开始播放时所处的包络刻，新触发的音符为 0。
+     */
+    public static void playSound(BlockPos pos, int soundId, int instrumentId, int note, int velocity,
+            int sustainTicks, int fadeInTicks, int fadeOutTicks, int startTick) {
         stopSound(soundId); // 先用ID停止，确保不会重复
         // 获取当前激活的音色包信息
         SoundPackInfo activePack = SoundPackManager.getInstance().getActivePackInfo();
@@ -43,38 +64,85 @@ public class ClientSoundManager {
 
         Identifier soundIdentifier = new Identifier("extendednoteblock", "notes." + instrumentId + "." + soundKey);
         SoundEvent soundEvent = SoundEvent.of(soundIdentifier);
-        // float volume = (Math.max(0.0f, Math.min(1.0f, velocity / 127.0f)));
         StoppablePositionalSoundInstance soundInstance = new StoppablePositionalSoundInstance(
-                soundEvent, SoundCategory.RECORDS, initialVolume, pitch, pos, 0); // sustainTicks 不再由客户端管理
+                soundEvent, SoundCategory.RECORDS, pitch, pos, velocity, sustainTicks, fadeInTicks, fadeOutTicks,
+                startTick);
 
         PLAYING_SOUNDS.put(soundId, soundInstance);
+        SOUNDS_BY_POS.computeIfAbsent(pos.asLong(), key -> new IntArrayList(2)).add(soundId);
         MinecraftClient.getInstance().getSoundManager().play(soundInstance);
 
     }
 
-    public static void updateVolume(UUID soundId, float volume) {
+    /**
+     * 让声音在指定刻数内线性过渡到目标音量，覆盖本地包络。
+     */
+    public static void updateVolume(int soundId, float targetVolume, int rampTicks) {
         StoppablePositionalSoundInstance soundInstance = PLAYING_SOUNDS.get(soundId);
         if (soundInstance != null) {
-            soundInstance.setVolume(volume);
+            soundInstance.rampVolume(targetVolume, rampTicks);
         }
     }
 
-    public static void stopSound(UUID soundId) {
+    public static void stopSound(int soundId) {
         StoppablePositionalSoundInstance existingSound = PLAYING_SOUNDS.remove(soundId);
         if (existingSound != null) {
+            unindex(soundId, existingSound);
             existingSound.stopSound();
         }
     }
 
-    // 暂时保留，但服务器逻辑不会用它
-    // 兼容性而保留
-    public static void stopSound(BlockPos pos) {
-        PLAYING_SOUNDS.values().removeIf(sound -> {
-            if (sound.getPos().equals(pos)) {
-                sound.stopSound();
+    private static void unindex(int soundId, StoppablePositionalSoundInstance sound) {
+        long key = sound.getPos().asLong();
+        IntArrayList handles = SOUNDS_BY_POS.get(key);
+        if (handles != null) {
+            handles.rem(soundId);
+            if (handles.isEmpty()) {
+                SOUNDS_BY_POS.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 移除已经结束或未能被声音系统播放的声音实例。
+     */
+    private static void pruneFinishedSounds() {
+        if (PLAYING_SOUNDS.isEmpty()) {
+            return;
+        }
+        var soundManager = MinecraftClient.getInstance().getSoundManager();
+        PLAYING_SOUNDS.int2ObjectEntrySet().removeIf(entry -> {
+            StoppablePositionalSoundInstance sound = entry.getValue();
+            if (sound.isDone() || !soundManager.isPlaying(sound)) {
+                unindex(entry.getIntKey(), sound);
                 return true;
             }
             return false;
         });
     }
+
+    /**
+     * 停止并清除所有正在播放的声音，在断开连接时调用。
+     */
+    public static void stopAll() {
+        PLAYING_SOUNDS.values().forEach(StoppablePositionalSoundInstance::stopSound);
+        PLAYING_SOUNDS.clear();
+        SOUNDS_BY_POS.clear();
+    }
+
+    /**
+     * 停止指定位置上的所有声音，通过位置索引直接定位，无需扫描全部声音。
+     */
+    public static void stopSound(BlockPos pos) {
+        IntArrayList handles = SOUNDS_BY_POS.remove(pos.asLong());
+        if (handles == null) {
+            return;
+        }
+        for (int i = 0; i < handles.size(); i++) {
+            StoppablePositionalSoundInstance sound = PLAYING_SOUNDS.remove(handles.getInt(i));
+            if (sound != null) {
+                sound.stopSound();
+            }
+        }
+    }
 }
@@ -10,6 +10,13 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.random.Random;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * 一个可以被停止、并在客户端本地计算音量包络的位置声音实例。
+ *
+ * 服务器在开始播放时发送完整的包络参数 (力度、总时长、淡入、淡出、起始刻)，
+ * 此实例在每个客户端刻中用 {@link SoundEnvelope} 计算当前音量，并在包络结束时自行停止。
+ * 服务器只在强制淡出时通过 {@link #rampVolume(float, int)} 覆盖本地包络。
+ */
 public class StoppablePositionalSoundInstance implements TickableSoundInstance {
     private final BlockPos pos;
     private final SoundEvent soundEvent;
@@ -22,15 +29,33 @@ public class StoppablePositionalSoundInstance implements TickableSoundInstance {
     @Nullable
     private WeightedSoundSet soundSet;
 
-    public StoppablePositionalSoundInstance(SoundEvent soundEvent, SoundCategory category, float volume, float pitch,
-            BlockPos pos, int sustainTicks) {
+    // 包络参数
+    private final int velocity;
+    private final int sustainTicks;
+    private final int fadeInTicks;
+    private final int fadeOutTicks;
+    private int currentTick;
+
+    // 由服务器触发的音量斜坡 (例如强制淡出)，rampTicks < 0 表示未激活
+    private int rampTicks = -1;
+    private int rampStartTick;
+    private float rampStartVolume;
+    private float rampTargetVolume;
+
+    public StoppablePositionalSoundInstance(SoundEvent soundEvent, SoundCategory category, float pitch,
+            BlockPos pos, int velocity, int sustainTicks, int fadeInTicks, int fadeOutTicks, int startTick) {
         this.soundEvent = soundEvent;
         this.category = category;
-        this.volume = volume;
         this.pitch = pitch;
         this.pos = pos;
         this.repeat = false;
         this.repeatDelay = 0;
+        this.velocity = velocity;
+        this.sustainTicks = sustainTicks;
+        this.fadeInTicks = fadeInTicks;
+        this.fadeOutTicks = fadeOutTicks;
+        this.currentTick = Math.max(0, startTick);
+        this.volume = SoundEnvelope.initialVolume(velocity, sustainTicks, fadeInTicks, fadeOutTicks, startTick);
     }
 
     @Override
@@ -79,6 +104,23 @@ public class StoppablePositionalSoundInstance implements TickableSoundInstance {
         this.volume = newVolume;
     }
 
+    /**
+     * 从当前音量开始，在指定刻数内线性过渡到目标音量。
+     * 目标音量为 0 时，声音会在过渡结束后停止。
+     *
+     * @param targetVolume 目标音量。
+     * @param ticks        过渡所用的刻数，小于等于 0 时立即生效。
+     */
+    public void rampVolume(float targetVolume, int ticks) {
+        this.rampStartVolume = this.volume;
+        this.rampTargetVolume = targetVolume;
+        this.rampStartTick = this.currentTick;
+        this.rampTicks = Math.max(0, ticks);
+        if (this.rampTicks == 0) {
+            applyRamp();
+        }
+    }
+
     @Override
     public float getPitch() {
         return this.pitch;
@@ -111,6 +153,30 @@ public class StoppablePositionalSoundInstance implements TickableSoundInstance {
 
     @Override
     public void tick() {
+        if (this.done) {
+            return;
+        }
+        this.currentTick++;
+
+        if (this.rampTicks >= 0) {
+            applyRamp();
+            return;
+        }
+
+        if (SoundEnvelope.isExpired(this.sustainTicks, this.currentTick)) {
+            this.done = true;
+            return;
+        }
+        this.volume = SoundEnvelope.volumeAt(this.velocity, this.sustainTicks, this.fadeInTicks, this.fadeOutTicks,
+                this.currentTick);
+    }
+
+    private void applyRamp() {
+        int progress = this.currentTick - this.rampStartTick;
+        this.volume = SoundEnvelope.rampVolume(this.rampStartVolume, this.rampTargetVolume, this.rampTicks, progress);
+        if (progress >= this.rampTicks && this.rampTargetVolume <= 0.0f) {
+            this.done = true;
+        }
     }
 
     @Override
@@ -6,11 +6,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.atemukesu.extendednoteblock.block.ModBlocks;
+import com.atemukesu.extendednoteblock.block.NoteBlockClipboard;
+import com.atemukesu.extendednoteblock.block.NoteTriggerQueue;
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
+import com.atemukesu.extendednoteblock.command.ModCommands;
+import com.atemukesu.extendednoteblock.block.entity.BlockEntitySyncQueue;
 import com.atemukesu.extendednoteblock.block.entity.ModBlockEntities;
 import com.atemukesu.extendednoteblock.item.ModItemGroups;
+import com.atemukesu.extendednoteblock.map.InstrumentMapLoader;
 import com.atemukesu.extendednoteblock.network.ModMessages;
+import com.atemukesu.extendednoteblock.network.SoundBundles;
 import com.atemukesu.extendednoteblock.screen.ModScreenHandlers;
+import com.atemukesu.extendednoteblock.config.ServerConfigManager;
+import com.atemukesu.extendednoteblock.sound.PlaybackPersistentState;
 import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+import com.atemukesu.extendednoteblock.song.SongLibrary;
+import com.atemukesu.extendednoteblock.song.SongPlayers;
 
 public class ExtendedNoteBlock implements ModInitializer {
 	public static final String MOD_ID = "extendednoteblock";
@@ -28,9 +39,20 @@ public class ExtendedNoteBlock implements ModInitializer {
 		ModBlocks.registerModBlocks();
 		ModItemGroups.registerItemGroups();
 		ModBlockEntities.registerBlockEntities();
+		BlockEntitySyncQueue.initialize();
 		ModScreenHandlers.registerScreenHandlers();
         ModMessages.registerC2SPackets();
+		ServerConfigManager.initialize();
+		InstrumentMapLoader.initialize();
 		ServerSoundManager.initialize();
+		SoundBundles.initialize();
+		NoteTriggerScheduler.initialize();
+		NoteTriggerQueue.initialize();
+		NoteBlockClipboard.initialize();
+		PlaybackPersistentState.initialize();
+		SongLibrary.initialize();
+		SongPlayers.initialize();
+		ModCommands.registerCommands();
 		LOGGER.info("Extended Note Block Loaded.");
 	}
 }
\ No newline at end of file
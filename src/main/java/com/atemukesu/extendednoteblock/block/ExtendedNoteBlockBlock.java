@@ -1,10 +1,5 @@
 package com.atemukesu.extendednoteblock.block;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 import org.jetbrains.annotations.Nullable;
 import com.atemukesu.extendednoteblock.block.entity.ExtendedNoteBlockEntity;
 import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
@@ -22,6 +17,7 @@ import net.minecraft.util.ActionResult;
 import net.minecraft.util.Hand;
 import net.minecraft.util.hit.BlockHitResult;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldAccess;
 import net.minecraft.state.StateManager;
@@ -35,11 +31,9 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
 
     public static final EnumProperty<NotePitch> PITCH = EnumProperty.of("pitch", NotePitch.class);
 
-    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
-        Thread thread = new Thread(runnable, "ExtendedNoteBlockDelayScheduler");
-        thread.setDaemon(true);
-        return thread;
-    });
+    // 触发和弦时复用的缓冲区，只在服务器主线程上使用
+    private final int[] chordNotes = new int[ExtendedNoteBlockEntity.MAX_CHORD_SIZE];
+    private final int[] chordVelocities = new int[ExtendedNoteBlockEntity.MAX_CHORD_SIZE];
 
     public ExtendedNoteBlockBlock(Settings settings) {
         super(settings);
@@ -54,32 +48,30 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
         builder.add(PITCH);
     }
 
-    private void triggerNote(World world, BlockPos pos) {
+    void triggerNote(World world, BlockPos pos) {
         if (world.isClient() || !(world instanceof ServerWorld serverWorld)) {
             return;
         }
+        // 同一刻内的触发在刻结束时统一播放，重复的触发只播放一次
+        NoteTriggerQueue.enqueue(serverWorld, pos);
+    }
 
-        // 生成粒子效果
-        if (world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity blockEntity) {
-            double particleColor = (blockEntity.getNote() % 25) / 24.0D;
-            serverWorld.spawnParticles(
-                    ParticleTypes.NOTE,
-                    pos.getX() + 0.5D,
-                    pos.getY() + 1.2D,
-                    pos.getZ() + 0.5D,
-                    0, particleColor, 0.0D, 0.0D, 1.0D);
-
-            // 使用新的管理器
-            ServerSoundManager.playSound(
-                    serverWorld,
-                    pos,
-                    blockEntity.getInstrumentId(),
-                    blockEntity.getNote(),
-                    blockEntity.getVelocity(),
-                    blockEntity.getSustain(),
-                    blockEntity.getFadeInTime(),
-                    blockEntity.getFadeOutTime());
-        }
+    /**
+     * 播放音符盒当前的音符或和弦。由 {@link NoteTriggerQueue} 在刻结束时调用，粒子由队列统一发送。
+     */
+    void playNote(ServerWorld world, BlockPos pos, ExtendedNoteBlockEntity blockEntity) {
+        // 和弦中的所有音符作为一个事件一起开始
+        int count = blockEntity.fillChord(chordNotes, chordVelocities);
+        ServerSoundManager.playChord(
+                world,
+                pos,
+                blockEntity.getInstrumentId(),
+                chordNotes,
+                chordVelocities,
+                count,
+                blockEntity.getSustain(),
+                blockEntity.getFadeInTime(),
+                blockEntity.getFadeOutTime());
     }
 
     public void previewNote(World world, BlockPos pos) {
@@ -96,8 +88,9 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
                     pos.getZ() + 0.5D,
                     0, particleColor, 0.0D, 0.0D, 1.0D);
             // 预览：短暂的持续时间，没有淡入淡出
-            ServerSoundManager.playSound(serverWorld, pos, blockEntity.getInstrumentId(), blockEntity.getNote(),
-                    blockEntity.getVelocity(), 20, 0, 3);
+            int count = blockEntity.fillChord(chordNotes, chordVelocities);
+            ServerSoundManager.playChord(serverWorld, pos, blockEntity.getInstrumentId(), chordNotes,
+                    chordVelocities, count, 20, 0, 3);
         }
     }
 
@@ -135,6 +128,10 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
         if (world.isClient) {
             return;
         }
+        // 不触发形状更新的方块变化 (例如活塞推动) 只会通知相邻方块
+        if (sourcePos.equals(pos.down()) && world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity entity) {
+            entity.invalidateInstrument();
+        }
 
         boolean isPowered = world.isReceivingRedstonePower(pos);
         boolean wasPowered = state.get(Properties.POWERED);
@@ -149,17 +146,11 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
                     // 更新方块状态
                     world.setBlockState(pos, newState, Block.NOTIFY_ALL);
                     int delay = blockEntity.getDelayedPlayingTime();
-                    if (delay > 0) {
-                        ScheduledFuture<?> future = scheduler.schedule(() -> {
-                            // 在执行任务前，再次检查方块是否仍然存在且处于充能状态
-                            if (world.getBlockState(pos).isOf(this)
-                                    && world.getBlockState(pos).get(Properties.POWERED)) {
-                                // 确保在主服务器线程上执行游戏逻辑
-                                world.getServer().execute(() -> triggerNote(world, pos));
-                            }
-                        }, delay, TimeUnit.MILLISECONDS);
-                        // 将 Future 对象存入方块实体中，以便之后可以取消它
-                        blockEntity.setScheduledFuture(future);
+                    if (NoteTriggerScheduler.millisToTicks(delay) > 0 && world instanceof ServerWorld serverWorld) {
+                        // 由服务器主线程上的时间轮在对应的游戏刻触发
+                        int handle = NoteTriggerScheduler.schedule(serverWorld, pos, delay);
+                        // 将句柄存入方块实体中，以便之后可以取消它
+                        blockEntity.setScheduledTrigger(handle);
                     } else {
                         // 如果没有延迟，立即触发
                         this.triggerNote(world, pos);
@@ -177,6 +168,18 @@ public class ExtendedNoteBlockBlock extends BlockWithEntity {
         }
     }
 
+    @Override
+    @SuppressWarnings("deprecation")
+    public BlockState getStateForNeighborUpdate(BlockState state, Direction direction, BlockState neighborState,
+            WorldAccess world, BlockPos pos, BlockPos neighborPos) {
+        // 下方方块决定乐器，改变时让方块实体重新解析
+        if (direction == Direction.DOWN && !world.isClient()
+                && world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity entity) {
+            entity.invalidateInstrument();
+        }
+        return super.getStateForNeighborUpdate(state, direction, neighborState, world, pos, neighborPos);
+    }
+
     @Override
     public void onBroken(WorldAccess world, BlockPos pos, BlockState state) {
         if (state.get(Properties.POWERED)) {
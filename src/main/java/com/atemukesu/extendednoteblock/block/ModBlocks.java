@@ -16,6 +16,9 @@ public class ModBlocks {
             new ExtendedNoteBlockBlock(FabricBlockSettings.copyOf(Blocks.NOTE_BLOCK)
                     .luminance(state -> state.get(net.minecraft.state.property.Properties.POWERED) ? 15 : 0)));
 
+    public static final Block SEQUENCER = registerBlock("sequencer",
+            new SequencerBlock(FabricBlockSettings.copyOf(Blocks.NOTE_BLOCK)));
+
     /**
      * 辅助方法，用于注册方块
      * 
@@ -0,0 +1,244 @@
+package com.atemukesu.extendednoteblock.block;
+
+import com.atemukesu.extendednoteblock.block.entity.ExtendedNoteBlockEntity;
+import com.atemukesu.extendednoteblock.block.entity.NoteConfig;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 扩展音符盒设置的剪贴板，供 {@code /enb copy} 和 {@code /enb paste} 使用。
+ *
+ * 复制时按区块读取区域内的方块实体，每个音符盒只保存相对区域最小角的位置 ({@link BlockPos#asLong()})、
+ * 打包的设置 ({@link NoteConfig#packed()}) 和非空的和弦，条目按区块分组。
+ * 粘贴只修改目标位置上已有的扩展音符盒，不放置方块。粘贴作为一个任务在所在世界的
+ * {@code END_WORLD_TICK} 中推进，每个世界每刻最多使用 {@value #TICK_BUDGET_NANOS} 纳秒，
+ * 连续的条目落在同一区块时复用已经取得的区块。移调只以 {@code NOTIFY_LISTENERS} 更新 PITCH 方块状态
+ * (见 {@link ExtendedNoteBlockEntity#updateValues})，不通知相邻方块。
+ *
+ * 每个命令执行者 (玩家或控制台) 有各自的剪贴板，服务器停止时清空。
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class NoteBlockClipboard {
+    /**
+     * 复制的区域在 X 和 Z 方向上最多跨越的区块数。
+     */
+    public static final int MAX_REGION_CHUNKS = 64;
+    /**
+     * 一个剪贴板最多保存的音符盒数。
+     */
+    public static final int MAX_BLOCKS = 1 << 18;
+    private static final long TICK_BUDGET_NANOS = 2_000_000L;
+    // 每处理这么多条目检查一次时间
+    private static final int BUDGET_CHECK_INTERVAL = 64;
+
+    private static final Map<UUID, Clipboard> clipboards = new HashMap<>();
+    private static final List<PasteJob> jobs = new ArrayList<>();
+
+    public static void initialize() {
+        ServerTickEvents.END_WORLD_TICK.register(NoteBlockClipboard::tick);
+        ServerWorldEvents.UNLOAD.register((server, world) -> jobs.removeIf(job -> job.world == world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            clipboards.clear();
+            jobs.clear();
+        });
+    }
+
+    /**
+     * 把区域内所有扩展音符盒的设置复制到执行者的剪贴板。粘贴时区域相对执行者的位置保持不变。
+     *
+     * @return 复制的音符盒数；区域过大时返回 -1，音符盒过多时返回 -2，剪贴板不变。
+     */
+    public static int copy(ServerCommandSource source, BlockPos a, BlockPos b) {
+        BlockPos from = new BlockPos(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()),
+                Math.min(a.getZ(), b.getZ()));
+        BlockPos to = new BlockPos(Math.max(a.getX(), b.getX()), Math.max(a.getY(), b.getY()),
+                Math.max(a.getZ(), b.getZ()));
+        if ((to.getX() >> 4) - (from.getX() >> 4) >= MAX_REGION_CHUNKS
+                || (to.getZ() >> 4) - (from.getZ() >> 4) >= MAX_REGION_CHUNKS) {
+            return -1;
+        }
+        ServerWorld world = source.getWorld();
+        LongArrayList offsets = new LongArrayList();
+        LongArrayList settings = new LongArrayList();
+        List<int[]> chords = new ArrayList<>();
+        for (int chunkX = from.getX() >> 4; chunkX <= to.getX() >> 4; chunkX++) {
+            for (int chunkZ = from.getZ() >> 4; chunkZ <= to.getZ() >> 4; chunkZ++) {
+                WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkX, chunkZ, false);
+                if (chunk == null) {
+                    continue;
+                }
+                for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+                    if (!(blockEntity instanceof ExtendedNoteBlockEntity entity)) {
+                        continue;
+                    }
+                    BlockPos pos = entity.getPos();
+                    if (pos.getX() < from.getX() || pos.getX() > to.getX() || pos.getY() < from.getY()
+                            || pos.getY() > to.getY() || pos.getZ() < from.getZ() || pos.getZ() > to.getZ()) {
+                        continue;
+                    }
+                    if (offsets.size() >= MAX_BLOCKS) {
+                        return -2;
+                    }
+                    offsets.add(BlockPos.asLong(pos.getX() - from.getX(), pos.getY() - from.getY(),
+                            pos.getZ() - from.getZ()));
+                    settings.add(entity.getConfig().packed());
+                    int[] chord = entity.getChord();
+                    chords.add(chord.length > 0 ? chord : null);
+                }
+            }
+        }
+        BlockPos origin = BlockPos.ofFloored(source.getPosition());
+        clipboards.put(ownerOf(source), new Clipboard(from.subtract(origin), offsets.toLongArray(),
+                settings.toLongArray(), chords.toArray(new int[0][])));
+        return offsets.size();
+    }
+
+    /**
+     * 把执行者的剪贴板粘贴到相对执行者当前位置的区域，在之后的几刻内完成。
+     * 完成时向执行者发送结果。
+     *
+     * @param transpose     移调的半音数，和弦一起移动。
+     * @param velocityScale 力度的倍数。
+     * @return 要粘贴的音符盒数；剪贴板为空时返回 0。
+     */
+    public static int paste(ServerCommandSource source, int transpose, double velocityScale) {
+        Clipboard clipboard = clipboards.get(ownerOf(source));
+        if (clipboard == null || clipboard.offsets.length == 0) {
+            return 0;
+        }
+        BlockPos target = BlockPos.ofFloored(source.getPosition()).add(clipboard.offset);
+        jobs.add(new PasteJob(source, clipboard, target, transpose, velocityScale));
+        return clipboard.offsets.length;
+    }
+
+    private static UUID ownerOf(ServerCommandSource source) {
+        return source.getEntity() != null ? source.getEntity().getUuid() : Util.NIL_UUID;
+    }
+
+    private static void tick(ServerWorld world) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + TICK_BUDGET_NANOS;
+        for (int i = 0; i < jobs.size(); i++) {
+            PasteJob job = jobs.get(i);
+            if (job.world != world) {
+                continue;
+            }
+            if (job.run(deadline)) {
+                jobs.remove(i--);
+                job.finish();
+            }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 复制的音符盒设置。
+     *
+     * @param offset   区域最小角相对复制时执行者位置的偏移。
+     * @param offsets  每个音符盒相对区域最小角的位置。
+     * @param settings 每个音符盒打包的设置。
+     * @param chords   每个音符盒的和弦，没有和弦时为 null。
+     */
+    private record Clipboard(BlockPos offset, long[] offsets, long[] settings, int[][] chords) {
+    }
+
+    /**
+     * 一次进行中的粘贴。
+     */
+    private static class PasteJob {
+        private final ServerCommandSource source;
+        private final ServerWorld world;
+        private final Clipboard clipboard;
+        private final BlockPos target;
+        private final int transpose;
+        private final double velocityScale;
+        private final BlockPos.Mutable pos = new BlockPos.Mutable();
+        private int next;
+        private int pasted;
+        private int skipped;
+        // 最近一次取得的区块，连续的条目通常落在同一区块
+        private long chunkKey = Long.MIN_VALUE;
+        private WorldChunk chunk;
+
+        PasteJob(ServerCommandSource source, Clipboard clipboard, BlockPos target, int transpose,
+                double velocityScale) {
+            this.source = source;
+            this.world = source.getWorld();
+            this.clipboard = clipboard;
+            this.target = target;
+            this.transpose = transpose;
+            this.velocityScale = velocityScale;
+        }
+
+        /**
+         * 处理条目直到完成或超过期限。
+         *
+         * @return 是否已经处理完所有条目。
+         */
+        boolean run(long deadline) {
+            long[] offsets = clipboard.offsets;
+            while (next < offsets.length) {
+                long offset = offsets[next];
+                pos.set(target.getX() + BlockPos.unpackLongX(offset), target.getY() + BlockPos.unpackLongY(offset),
+                        target.getZ() + BlockPos.unpackLongZ(offset));
+                apply(next);
+                next++;
+                if (next % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            // 区块可能在两刻之间被卸载，不跨刻保留
+            chunk = null;
+            chunkKey = Long.MIN_VALUE;
+            return next >= offsets.length;
+        }
+
+        private void apply(int index) {
+            int chunkX = ChunkSectionPos.getSectionCoord(pos.getX());
+            int chunkZ = ChunkSectionPos.getSectionCoord(pos.getZ());
+            long key = ChunkPos.toLong(chunkX, chunkZ);
+            if (key != chunkKey) {
+                chunkKey = key;
+                chunk = world.getChunkManager().getWorldChunk(chunkX, chunkZ, false);
+            }
+            if (chunk == null || !(chunk.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity entity)) {
+                skipped++;
+                return;
+            }
+            NoteConfig config = NoteConfig.fromPacked(clipboard.settings[index]);
+            int[] chord = clipboard.chords[index] != null ? clipboard.chords[index] : new int[0];
+            int velocity = MathHelper.clamp((int) Math.round(config.velocity() * velocityScale), 0, 127);
+            entity.updateValues(config.note() + transpose, velocity, config.sustain(), config.delay(),
+                    config.fadeIn(), config.fadeOut(),
+                    ExtendedNoteBlockEntity.transformChord(chord, transpose, velocityScale));
+            pasted++;
+        }
+
+        void finish() {
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.paste.success", pasted, skipped),
+                    true);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.atemukesu.extendednoteblock.block;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import com.atemukesu.extendednoteblock.block.entity.ExtendedNoteBlockEntity;
+import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+import com.atemukesu.extendednoteblock.sound.SoundStats;
+import com.atemukesu.extendednoteblock.sound.WorldSoundEngine;
+import com.atemukesu.extendednoteblock.util.SectionKeys;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.fabricmc.fabric.api.event.Event;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.block.BlockState;
+import net.minecraft.network.listener.ClientPlayPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.s2c.play.BundleS2CPacket;
+import net.minecraft.network.packet.s2c.play.ParticleS2CPacket;
+import net.minecraft.particle.ParticleTypes;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 同一刻内扩展音符盒触发的队列。
+ *
+ * 一条红石线路在同一刻可能触发上百个音符盒。触发不会立即播放，而是先放入所在世界的队列，
+ * 同一个方块在一刻内重复触发只播放一次。队列在该世界的 {@code END_WORLD_TICK} 开始时
+ * (早于声音引擎的更新) 按区块区段排序后统一处理：同一区段的音符连续播放，可听玩家的查询命中
+ * {@link com.atemukesu.extendednoteblock.sound.AudienceTracker} 的区段缓存，
+ * 粒子的收件玩家也只按区段计算一次，每个玩家的所有粒子合并为一个捆绑包发送。
+ * 声音事件本身由 {@link com.atemukesu.extendednoteblock.network.SoundBundles} 按玩家合并。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class NoteTriggerQueue {
+    private static final Identifier DISPATCH_PHASE = new Identifier(ExtendedNoteBlock.MOD_ID, "note_triggers");
+    // 与原版 ServerWorld.spawnParticles 相同的粒子可见距离
+    private static final double PARTICLE_DISTANCE = 32.0;
+    // 区块区段中心到角落的距离，向上取整
+    private static final double SECTION_HALF_DIAGONAL = 14.0;
+    // 客户端一个捆绑包最多接受的数据包数
+    private static final int MAX_BUNDLE_PACKETS = 4096;
+
+    private static final Map<ServerWorld, WorldQueue> worlds = new IdentityHashMap<>();
+    // 本刻内每个玩家要接收的粒子数据包，发送后清空
+    private static final Map<ServerPlayerEntity, List<Packet<ClientPlayPacketListener>>> particlePackets =
+            new IdentityHashMap<>();
+
+    public static void initialize() {
+        ServerTickEvents.END_WORLD_TICK.addPhaseOrdering(DISPATCH_PHASE, Event.DEFAULT_PHASE);
+        ServerTickEvents.END_WORLD_TICK.register(DISPATCH_PHASE, NoteTriggerQueue::dispatch);
+        ServerWorldEvents.UNLOAD.register((server, world) -> worlds.remove(world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> worlds.clear());
+    }
+
+    /**
+     * 把一次触发放入队列，在当前刻结束时播放。
+     */
+    public static void enqueue(ServerWorld world, BlockPos pos) {
+        WorldQueue queue = worlds.computeIfAbsent(world, key -> new WorldQueue());
+        long packedPos = pos.asLong();
+        if (queue.queued.add(packedPos)) {
+            queue.order.add(packedPos);
+        }
+    }
+
+    private static void dispatch(ServerWorld world) {
+        WorldQueue queue = worlds.get(world);
+        if (queue == null || queue.order.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long[] positions = queue.order.elements();
+        int size = queue.order.size();
+        LongArrays.quickSort(positions, 0, size,
+                (a, b) -> Long.compare(SectionKeys.ofBlock(a), SectionKeys.ofBlock(b)));
+
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        long currentSection = Long.MIN_VALUE;
+        List<ServerPlayerEntity> particleViewers = List.of();
+        for (int i = 0; i < size; i++) {
+            pos.set(positions[i]);
+            if (!world.isChunkLoaded(ChunkSectionPos.getSectionCoord(pos.getX()),
+                    ChunkSectionPos.getSectionCoord(pos.getZ()))) {
+                continue;
+            }
+            BlockState state = world.getBlockState(pos);
+            if (!(state.getBlock() instanceof ExtendedNoteBlockBlock block)
+                    || !(world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity blockEntity)) {
+                continue;
+            }
+            BlockPos immutablePos = pos.toImmutable();
+            block.playNote(world, immutablePos, blockEntity);
+
+            long sectionKey = SectionKeys.ofBlock(positions[i]);
+            if (sectionKey != currentSection) {
+                currentSection = sectionKey;
+                particleViewers = particleViewersNear(world, sectionKey);
+            }
+            if (!particleViewers.isEmpty()) {
+                addParticle(particleViewers, immutablePos, blockEntity.getNote());
+            }
+        }
+        queue.order.clear();
+        queue.queued.clear();
+        sendParticles();
+        // 触发处理计入该世界声音引擎的每刻耗时，引擎可能在本次处理中才被创建
+        WorldSoundEngine engine = ServerSoundManager.getEngine(world);
+        if (engine != null) {
+            engine.getStats().add(SoundStats.TICK_NANOS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 获取可能看到区段内粒子的玩家。
+     */
+    private static List<ServerPlayerEntity> particleViewersNear(ServerWorld world, long sectionKey) {
+        double centerX = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackX(sectionKey)) + 8.0;
+        double centerY = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackY(sectionKey)) + 8.0;
+        double centerZ = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackZ(sectionKey)) + 8.0;
+        double maxDistance = (PARTICLE_DISTANCE + SECTION_HALF_DIAGONAL)
+                * (PARTICLE_DISTANCE + SECTION_HALF_DIAGONAL);
+        List<ServerPlayerEntity> viewers = null;
+        for (ServerPlayerEntity player : world.getPlayers()) {
+            if (player.squaredDistanceTo(centerX, centerY, centerZ) <= maxDistance) {
+                if (viewers == null) {
+                    viewers = new ArrayList<>(2);
+                }
+                viewers.add(player);
+            }
+        }
+        return viewers != null ? viewers : List.of();
+    }
+
+    private static void addParticle(List<ServerPlayerEntity> viewers, BlockPos pos, int note) {
+        double x = pos.getX() + 0.5D;
+        double y = pos.getY() + 1.2D;
+        double z = pos.getZ() + 0.5D;
+        double particleColor = (note % 25) / 24.0D;
+        ParticleS2CPacket packet = null;
+        for (ServerPlayerEntity player : viewers) {
+            if (!player.getBlockPos().isWithinDistance(pos, PARTICLE_DISTANCE)) {
+                continue;
+            }
+            if (packet == null) {
+                packet = new ParticleS2CPacket(ParticleTypes.NOTE, false, x, y, z, (float) particleColor, 0.0F,
+                        0.0F, 1.0F, 0);
+            }
+            particlePackets.computeIfAbsent(player, key -> new ArrayList<>()).add(packet);
+        }
+    }
+
+    private static void sendParticles() {
+        for (Map.Entry<ServerPlayerEntity, List<Packet<ClientPlayPacketListener>>> entry : particlePackets
+                .entrySet()) {
+            ServerPlayerEntity player = entry.getKey();
+            List<Packet<ClientPlayPacketListener>> packets = entry.getValue();
+            if (packets.size() == 1) {
+                player.networkHandler.sendPacket(packets.get(0));
+                continue;
+            }
+            for (int start = 0; start < packets.size(); start += MAX_BUNDLE_PACKETS) {
+                List<Packet<ClientPlayPacketListener>> part = packets.subList(start,
+                        Math.min(packets.size(), start + MAX_BUNDLE_PACKETS));
+                player.networkHandler.sendPacket(new BundleS2CPacket(new ArrayList<>(part)));
+            }
+        }
+        particlePackets.clear();
+    }
+
+    private static class WorldQueue {
+        // 触发顺序，处理前按区段排序
+        private final LongArrayList order = new LongArrayList();
+        // 本刻内已经入队的方块，用于去重
+        private final LongOpenHashSet queued = new LongOpenHashSet();
+    }
+}
@@ -0,0 +1,225 @@
+package com.atemukesu.extendednoteblock.block;
+
+import com.atemukesu.extendednoteblock.block.entity.SequencerBlockEntity;
+import com.atemukesu.extendednoteblock.song.SongPlayers;
+import com.atemukesu.extendednoteblock.util.TimingWheel;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.state.property.Properties;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 音符盒延迟触发的调度器。
+ *
+ * 每个世界拥有一个 {@link TimingWheel}，在该世界的 {@code START_WORLD_TICK} 中由服务器主线程推进，
+ * 到期的音符在同一线程上直接触发，不需要额外的线程、跨线程提交或为每次触发创建 Future。
+ * 毫秒延迟会四舍五入到最近的游戏刻 (50 毫秒)，误差不超过半刻。
+ *
+ * 时间轮条目的标签低 8 位表示触发的类型：{@link #KIND_NOTE_BLOCK} 触发扩展音符盒，
+ * {@link #KIND_SEQUENCER} 让音序器播放下一组事件，此时高 24 位是音序器的播放编号，用于忽略已经停止的播放；
+ * {@link #KIND_SONG} 推进一个不依赖方块的歌曲播放 ({@link SongPlayers})，高 24 位是播放编号。
+ *
+ * 到期时所在区块未加载的音符不会丢失，而是按区块暂存，在区块重新加载后的下一刻触发。
+ * 尚未触发的音符随世界一起保存，见 {@link com.atemukesu.extendednoteblock.sound.PlaybackPersistentState}。
+ */
+public class NoteTriggerScheduler {
+    public static final int MILLIS_PER_TICK = 50;
+    public static final int KIND_NOTE_BLOCK = 0;
+    public static final int KIND_SEQUENCER = 1;
+    public static final int KIND_SONG = 2;
+    private static final int KIND_BITS = 8;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private static final Map<ServerWorld, WorldTriggers> worlds = new IdentityHashMap<>();
+
+    public static void initialize() {
+        ServerTickEvents.START_WORLD_TICK.register(world -> {
+            WorldTriggers triggers = worlds.get(world);
+            if (triggers != null) {
+                triggers.wheel.advance((handle, tag, payload) -> fire(world, triggers, payload, tag));
+            }
+        });
+        ServerChunkEvents.CHUNK_LOAD.register((world, chunk) -> {
+            WorldTriggers triggers = worlds.get(world);
+            if (triggers == null || triggers.deferred.isEmpty()) {
+                return;
+            }
+            DeferredTriggers deferred = triggers.deferred.remove(chunk.getPos().toLong());
+            if (deferred != null) {
+                // 在区块加载回调中不直接触发，留到下一刻由时间轮处理
+                for (int i = 0; i < deferred.positions.size(); i++) {
+                    triggers.wheel.schedule(1, deferred.tags.getInt(i), deferred.positions.getLong(i));
+                }
+            }
+        });
+        ServerWorldEvents.UNLOAD.register((server, world) -> worlds.remove(world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> worlds.clear());
+    }
+
+    /**
+     * 安排一个扩展音符盒在指定毫秒数后触发。
+     *
+     * @return 可用于取消的句柄。
+     */
+    public static int schedule(ServerWorld world, BlockPos pos, int delayMillis) {
+        return scheduleTicks(world, pos.asLong(), millisToTicks(delayMillis), KIND_NOTE_BLOCK);
+    }
+
+    /**
+     * 安排一个触发在指定刻数后发生。
+     *
+     * @param tag 触发的类型和附加数据，见 {@link #sequencerTag(int)}。
+     * @return 可用于取消的句柄。
+     */
+    public static int scheduleTicks(ServerWorld world, long packedPos, long delayTicks, int tag) {
+        WorldTriggers triggers = worlds.computeIfAbsent(world, key -> new WorldTriggers());
+        return triggers.wheel.schedule(delayTicks, tag, packedPos);
+    }
+
+    /**
+     * 音序器触发的标签。
+     *
+     * @param runId 音序器的播放编号。
+     */
+    public static int sequencerTag(int runId) {
+        return (runId << KIND_BITS) | KIND_SEQUENCER;
+    }
+
+    /**
+     * 歌曲播放触发的标签。
+     *
+     * @param playerId 播放编号。
+     */
+    public static int songTag(int playerId) {
+        return (playerId << KIND_BITS) | KIND_SONG;
+    }
+
+    /**
+     * 标签对应的触发是否需要随世界保存。歌曲播放本身不保存，它的触发也不保存。
+     */
+    public static boolean isPersistent(int tag) {
+        return (tag & KIND_MASK) != KIND_SONG;
+    }
+
+    /**
+     * 取消一个尚未触发的音符。句柄已经触发或无效时不做任何事。
+     */
+    public static void cancel(ServerWorld world, int handle) {
+        if (handle == TimingWheel.INVALID_HANDLE) {
+            return;
+        }
+        WorldTriggers triggers = worlds.get(world);
+        if (triggers != null) {
+            triggers.wheel.cancel(handle);
+        }
+    }
+
+    /**
+     * 获取所有世界中等待触发的音符数量。
+     */
+    public static int getPendingTriggerCount() {
+        int count = 0;
+        for (ServerWorld world : worlds.keySet()) {
+            count += getPendingTriggerCount(world);
+        }
+        return count;
+    }
+
+    /**
+     * 遍历一个世界中所有尚未触发的音符，包括等待区块加载的音符 (剩余刻数为 0)。
+     */
+    public static void forEachPending(ServerWorld world, PendingVisitor visitor) {
+        WorldTriggers triggers = worlds.get(world);
+        if (triggers == null) {
+            return;
+        }
+        triggers.wheel.forEach((handle, tag, payload, remainingTicks) -> visitor.visit(payload, tag, remainingTicks));
+        for (DeferredTriggers deferred : triggers.deferred.values()) {
+            for (int i = 0; i < deferred.positions.size(); i++) {
+                visitor.visit(deferred.positions.getLong(i), deferred.tags.getInt(i), 0);
+            }
+        }
+    }
+
+    /**
+     * 获取一个世界中尚未触发的音符数量。
+     */
+    public static int getPendingTriggerCount(ServerWorld world) {
+        WorldTriggers triggers = worlds.get(world);
+        if (triggers == null) {
+            return 0;
+        }
+        int count = triggers.wheel.size();
+        for (DeferredTriggers deferred : triggers.deferred.values()) {
+            count += deferred.positions.size();
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    public interface PendingVisitor {
+        void visit(long packedPos, int tag, long remainingTicks);
+    }
+
+    /**
+     * 把毫秒延迟四舍五入为游戏刻。
+     */
+    public static long millisToTicks(int delayMillis) {
+        return Math.round(delayMillis / (double) MILLIS_PER_TICK);
+    }
+
+    private static void fire(ServerWorld world, WorldTriggers triggers, long packedPos, int tag) {
+        if ((tag & KIND_MASK) == KIND_SONG) {
+            // 歌曲播放不依赖方块，区块未加载时也照常推进
+            SongPlayers.playStep(world, tag >>> KIND_BITS);
+            return;
+        }
+        BlockPos pos = BlockPos.fromLong(packedPos);
+        long chunkKey = ChunkPos.toLong(pos);
+        if (!world.isChunkLoaded(ChunkPos.getPackedX(chunkKey), ChunkPos.getPackedZ(chunkKey))) {
+            // 区块未加载时暂存，等区块重新加载后再触发
+            DeferredTriggers deferred = triggers.deferred.computeIfAbsent(chunkKey, key -> new DeferredTriggers());
+            deferred.positions.add(packedPos);
+            deferred.tags.add(tag);
+            return;
+        }
+        BlockState state = world.getBlockState(pos);
+        switch (tag & KIND_MASK) {
+            case KIND_NOTE_BLOCK -> {
+                // 触发前再次检查方块是否仍然存在且处于充能状态
+                if (state.getBlock() instanceof ExtendedNoteBlockBlock block && state.get(Properties.POWERED)) {
+                    block.triggerNote(world, pos);
+                }
+            }
+            case KIND_SEQUENCER -> {
+                if (world.getBlockEntity(pos) instanceof SequencerBlockEntity sequencer) {
+                    sequencer.playStep(world, tag >>> KIND_BITS);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static class WorldTriggers {
+        private final TimingWheel wheel = new TimingWheel();
+        // 区块坐标 -> 到期时区块未加载的触发
+        private final Long2ObjectOpenHashMap<DeferredTriggers> deferred = new Long2ObjectOpenHashMap<>();
+    }
+
+    private static class DeferredTriggers {
+        private final LongArrayList positions = new LongArrayList(4);
+        private final IntArrayList tags = new IntArrayList(4);
+    }
+}
@@ -0,0 +1,94 @@
+package com.atemukesu.extendednoteblock.block;
+
+import org.jetbrains.annotations.Nullable;
+import com.atemukesu.extendednoteblock.block.entity.SequencerBlockEntity;
+import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockRenderType;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.BlockWithEntity;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.state.StateManager;
+import net.minecraft.state.property.Properties;
+import net.minecraft.text.Text;
+import net.minecraft.util.ActionResult;
+import net.minecraft.util.Hand;
+import net.minecraft.util.hit.BlockHitResult;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * 音序器方块。收到红石信号的上升沿时从头播放方块实体中保存的音符事件，
+ * 被破坏时停止播放并让它开始的声音淡出。
+ */
+public class SequencerBlock extends BlockWithEntity {
+
+    public SequencerBlock(Settings settings) {
+        super(settings);
+        this.setDefaultState(this.stateManager.getDefaultState().with(Properties.POWERED, false));
+    }
+
+    @Override
+    protected void appendProperties(StateManager.Builder<Block, BlockState> builder) {
+        builder.add(Properties.POWERED);
+    }
+
+    @Override
+    public ActionResult onUse(BlockState state, World world, BlockPos pos, PlayerEntity player, Hand hand,
+            BlockHitResult hit) {
+        if (!world.isClient && world.getBlockEntity(pos) instanceof SequencerBlockEntity sequencer) {
+            // 在动作栏显示音序器的状态
+            Text status = sequencer.isPlaying()
+                    ? Text.translatable("block.extendednoteblock.sequencer.status.playing",
+                            sequencer.getCursor(), sequencer.getEventCount())
+                    : Text.translatable("block.extendednoteblock.sequencer.status.idle",
+                            sequencer.getEventCount(), sequencer.getLengthTicks());
+            player.sendMessage(status, true);
+        }
+        return ActionResult.SUCCESS;
+    }
+
+    @Override
+    public void neighborUpdate(BlockState state, World world, BlockPos pos, Block sourceBlock, BlockPos sourcePos,
+            boolean notify) {
+        if (!(world instanceof ServerWorld serverWorld)) {
+            return;
+        }
+        boolean isPowered = world.isReceivingRedstonePower(pos);
+        if (isPowered != state.get(Properties.POWERED)) {
+            world.setBlockState(pos, state.with(Properties.POWERED, isPowered), Block.NOTIFY_ALL);
+            // 信号从 关 -> 开 时从头播放
+            if (isPowered && world.getBlockEntity(pos) instanceof SequencerBlockEntity sequencer) {
+                sequencer.start(serverWorld);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void onStateReplaced(BlockState state, World world, BlockPos pos, BlockState newState, boolean moved) {
+        if (!state.isOf(newState.getBlock())) {
+            if (world instanceof ServerWorld serverWorld) {
+                if (world.getBlockEntity(pos) instanceof SequencerBlockEntity sequencer) {
+                    sequencer.stop(serverWorld);
+                }
+                ServerSoundManager.stopSound(serverWorld, pos);
+            }
+            super.onStateReplaced(state, world, pos, newState, moved);
+        }
+    }
+
+    @Nullable
+    @Override
+    public BlockEntity createBlockEntity(BlockPos pos, BlockState state) {
+        return new SequencerBlockEntity(pos, state);
+    }
+
+    @Override
+    public BlockRenderType getRenderType(BlockState state) {
+        return BlockRenderType.MODEL;
+    }
+}
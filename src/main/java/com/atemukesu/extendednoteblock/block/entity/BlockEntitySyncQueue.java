@@ -0,0 +1,69 @@
+package com.atemukesu.extendednoteblock.block.entity;
+
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
+import net.minecraft.network.listener.ClientPlayPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 扩展音符盒方块实体到客户端的同步队列。
+ *
+ * 方块实体的字段改变时只记录改变了哪些字段 (见 {@link ExtendedNoteBlockEntity#markFieldsDirty(int)})，
+ * 并在一刻内第一次改变时放入所在世界的队列。队列在该世界的 {@code END_WORLD_TICK} 中处理，
+ * 每个方块实体只向追踪该区块的玩家发送一次紧凑的更新 (数值属性打包为一个 long，和弦只在改变时附加)，
+ * 同一刻内的多次编辑 (例如界面中逐个属性的修改或批量编辑) 不会各自产生同步。
+ * 音高的改变会更新 PITCH 方块状态，原版随之发送完整的方块实体数据，这时队列不再发送增量。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class BlockEntitySyncQueue {
+    private static final Map<ServerWorld, List<ExtendedNoteBlockEntity>> worlds = new IdentityHashMap<>();
+
+    public static void initialize() {
+        ServerTickEvents.END_WORLD_TICK.register(BlockEntitySyncQueue::flush);
+        ServerWorldEvents.UNLOAD.register((server, world) -> worlds.remove(world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> worlds.clear());
+    }
+
+    /**
+     * 把方块实体放入队列。每个方块实体在一刻内只应放入一次。
+     */
+    static void enqueue(ServerWorld world, ExtendedNoteBlockEntity blockEntity) {
+        worlds.computeIfAbsent(world, key -> new ArrayList<>()).add(blockEntity);
+    }
+
+    private static void flush(ServerWorld world) {
+        List<ExtendedNoteBlockEntity> queued = worlds.get(world);
+        if (queued == null || queued.isEmpty()) {
+            return;
+        }
+        for (ExtendedNoteBlockEntity blockEntity : queued) {
+            if (blockEntity.isRemoved() || blockEntity.getWorld() != world) {
+                blockEntity.clearDirtyFields();
+                continue;
+            }
+            // 改变音高时方块状态也改变了，原版已经发送了包含这些改变的完整数据
+            Collection<ServerPlayerEntity> players = blockEntity.hasDirtyFields()
+                    ? PlayerLookup.tracking(blockEntity)
+                    : List.of();
+            if (!players.isEmpty()) {
+                Packet<ClientPlayPacketListener> packet = blockEntity.toDeltaUpdatePacket();
+                for (ServerPlayerEntity player : players) {
+                    player.networkHandler.sendPacket(packet);
+                }
+            }
+            blockEntity.clearDirtyFields();
+        }
+        queued.clear();
+    }
+}
@@ -1,9 +1,11 @@
 package com.atemukesu.extendednoteblock.block.entity;
 
 import com.atemukesu.extendednoteblock.block.ExtendedNoteBlockBlock;
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
 import com.atemukesu.extendednoteblock.map.InstrumentMap;
 import com.atemukesu.extendednoteblock.screen.ExtendedNoteBlockScreenHandler;
 import com.atemukesu.extendednoteblock.util.NotePitch;
+import com.atemukesu.extendednoteblock.util.TimingWheel;
 
 import net.fabricmc.fabric.api.screenhandler.v1.ExtendedScreenHandlerFactory;
 import net.minecraft.block.Block;
@@ -16,15 +18,17 @@ import net.minecraft.network.PacketByteBuf;
 import net.minecraft.network.listener.ClientPlayPacketListener;
 import net.minecraft.network.packet.Packet;
 import net.minecraft.network.packet.s2c.play.BlockEntityUpdateS2CPacket;
-import net.minecraft.registry.Registries;
 import net.minecraft.screen.PropertyDelegate;
 import net.minecraft.screen.ScreenHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
 import net.minecraft.text.Text;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.concurrent.ScheduledFuture;
+import java.util.Arrays;
+
 
 /**
  * 扩展音符盒的方块实体 (Block Entity)。
@@ -33,45 +37,54 @@ import java.util.concurrent.ScheduledFuture;
  * 它也实现了 {@link ExtendedScreenHandlerFactory} 接口，使其能够打开一个自定义的 GUI 界面。
  *
  * 主要职责:
- * - 存储音符属性 (note, sustainTime, velocity)。
+ * - 存储音符属性 (共享的 {@link NoteConfig})，以及和弦中的其他音符。
  * - 将数据序列化到 NBT 标签中，用于保存和网络同步。
  * - 提供一个 {@link PropertyDelegate} 来同步整数属性到 GUI ScreenHandler。
  * - 根据下方的方块动态确定当前乐器ID。
  * - 作为创建 {@link ExtendedNoteBlockScreenHandler} 的工厂。
  */
 public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScreenHandlerFactory {
-
-    /**
-     * MIDI 音高值 (0-127)。
-     * 60 代表中央C。
-     */
-    private int note = 60;
-    /**
-     * 音符持续时间，单位为游戏刻 (ticks)。
-     * 20 ticks = 1 秒。
-     */
-    private int sustainTime = 40;
     /**
-     * MIDI 力度值 (0-127)，影响音符的音量。
+     * 一个音符盒在一次触发中最多播放的音符数 (包括主音符)。
      */
-    private int velocity = 100;
-    /**
-     * 延迟播放时间 (0-5000)，决定了音符将在接受到红石信号的何时开始播放。
-     */
-    private int delayedPlayingTime = 0;
+    public static final int MAX_CHORD_SIZE = 8;
+    private static final int UNRESOLVED_INSTRUMENT = -1;
+
+    // 需要同步到客户端的字段，位的顺序与属性委托和 NoteConfig 的属性索引相同
+    static final int DIRTY_NOTE = 1;
+    static final int DIRTY_VELOCITY = 1 << 1;
+    static final int DIRTY_SUSTAIN = 1 << 2;
+    static final int DIRTY_DELAY = 1 << 3;
+    static final int DIRTY_FADE_IN = 1 << 4;
+    static final int DIRTY_FADE_OUT = 1 << 5;
+    static final int DIRTY_CHORD = 1 << 6;
+    static final int DIRTY_ALL = (1 << 7) - 1;
+
+    // 保存格式的版本，没有 "format" 的数据是每个属性一个键的旧格式
+    private static final byte FORMAT_PACKED = 1;
+
     /**
-     * 淡入播放时间 (0-?)，决定音符的淡入。
+     * 音高 (0-127，60 代表中央C)、力度 (0-127)、持续时间 (0-400 刻)、延迟播放时间 (0-5000)
+     * 和淡入淡出时间 (0-5000 刻)。配置被驻留，设置相同的音符盒共享同一个实例。
      */
-    private int fadeInTime = 0;
+    private NoteConfig config = NoteConfig.DEFAULT;
     /**
-     * 淡出播放时间 (0-?)，决定音符淡出。
+     * 和弦中除主音符以外的其他音符，每个元素为 {@code 音符 << 8 | 力度}，
+     * 按音符升序排列，不包含重复音符和主音符。所有音符共享乐器、持续时间和淡入淡出。
      */
-    private int fadeOutTime = 0;
+    private int[] chord = new int[0];
 
-    // [新增] 用于跟踪延迟播放任务，以便在需要时可以取消它。
+    // 延迟播放在时间轮中的句柄，以便在需要时可以取消它。
     // transient 关键字确保它不会被序列化到NBT中。
-    @Nullable
-    private transient ScheduledFuture<?> scheduledSoundFuture;
+    private transient int scheduledTriggerHandle = TimingWheel.INVALID_HANDLE;
+    // 下方方块对应的乐器ID，在第一次使用时解析，下方方块改变时失效
+    private transient int cachedInstrumentId = UNRESOLVED_INSTRUMENT;
+    // 解析乐器ID时乐器映射的版本，映射在 /reload 后改变时重新解析
+    private transient int cachedInstrumentGeneration;
+    // 自上次同步以来改变的字段，在刻结束时由 BlockEntitySyncQueue 发送并清空
+    private transient int dirtyFields;
+    // 是否已经放入本刻的同步队列
+    private transient boolean syncQueued;
 
     public ExtendedNoteBlockEntity(BlockPos pos, BlockState state) {
         super(ModBlockEntities.EXTENDED_NOTE_BLOCK_ENTITY, pos, state);
@@ -89,29 +102,21 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
     protected final PropertyDelegate propertyDelegate = new PropertyDelegate() {
         @Override
         public int get(int index) {
-            return switch (index) {
-                case 0 -> ExtendedNoteBlockEntity.this.note;
-                case 1 -> ExtendedNoteBlockEntity.this.velocity;
-                case 2 -> ExtendedNoteBlockEntity.this.sustainTime;
-                case 3 -> ExtendedNoteBlockEntity.this.delayedPlayingTime;
-                case 4 -> ExtendedNoteBlockEntity.this.fadeInTime;
-                case 5 -> ExtendedNoteBlockEntity.this.fadeOutTime;
-                case 6 -> ExtendedNoteBlockEntity.this.getInstrumentId();
-                default -> 0;
-            };
+            if (index >= 0 && index < NoteConfig.PROPERTY_COUNT) {
+                return ExtendedNoteBlockEntity.this.config.get(index);
+            }
+            return index == NoteConfig.PROPERTY_COUNT ? ExtendedNoteBlockEntity.this.getInstrumentId() : 0;
         }
 
         @Override
         public void set(int index, int value) {
-            switch (index) {
-                case 0 -> ExtendedNoteBlockEntity.this.note = value;
-                case 1 -> ExtendedNoteBlockEntity.this.velocity = value;
-                case 2 -> ExtendedNoteBlockEntity.this.sustainTime = value;
-                case 3 -> ExtendedNoteBlockEntity.this.delayedPlayingTime = value;
-                case 4 -> ExtendedNoteBlockEntity.this.fadeInTime = value;
-                case 5 -> ExtendedNoteBlockEntity.this.fadeOutTime = value;
+            if (index < 0 || index >= NoteConfig.PROPERTY_COUNT) {
+                return;
             }
-            ExtendedNoteBlockEntity.this.markDirty();
+            NoteConfig oldConfig = ExtendedNoteBlockEntity.this.config;
+            ExtendedNoteBlockEntity.this.config = oldConfig.with(index, value);
+            // 只记录改变的字段，同一刻内的多次修改在刻结束时合并为一次同步
+            ExtendedNoteBlockEntity.this.markFieldsDirty(oldConfig.diff(ExtendedNoteBlockEntity.this.config));
         }
 
         @Override
@@ -120,56 +125,67 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
         }
     };
 
-    // [新增] 设置并管理延迟声音任务
-    public void setScheduledFuture(@Nullable ScheduledFuture<?> future) {
+    // 设置并管理延迟声音任务
+    public void setScheduledTrigger(int handle) {
         // 在设置新的任务之前，先确保取消任何旧的、还未完成的任务
         cancelScheduledSound();
-        this.scheduledSoundFuture = future;
+        this.scheduledTriggerHandle = handle;
     }
 
-    // [新增] 取消当前预定的声音播放任务
+    // 取消当前预定的声音播放任务，已经触发的句柄会被时间轮忽略
     public void cancelScheduledSound() {
-        if (this.scheduledSoundFuture != null && !this.scheduledSoundFuture.isDone()) {
-            // false 表示不中断正在执行的任务，对于调度器来说这通常是正确的选择
-            this.scheduledSoundFuture.cancel(false);
-            this.scheduledSoundFuture = null;
+        if (this.scheduledTriggerHandle != TimingWheel.INVALID_HANDLE
+                && this.world instanceof ServerWorld serverWorld) {
+            NoteTriggerScheduler.cancel(serverWorld, this.scheduledTriggerHandle);
         }
+        this.scheduledTriggerHandle = TimingWheel.INVALID_HANDLE;
     }
 
     /**
      * 将方块实体的数据写入 NBT 标签，用于世界保存。
      *
+     * 六个数值属性打包为一个 long (见 {@link NoteConfig#packed()})，和弦只在非空时保存。
+     *
      * @param nbt 要写入的 NBT 化合物。
      */
     @Override
     protected void writeNbt(NbtCompound nbt) {
-        nbt.putInt("note", note);
-        nbt.putInt("sustainTime", sustainTime);
-        nbt.putInt("velocity", velocity);
-        nbt.putInt("delayedPlayingTime", delayedPlayingTime);
-        nbt.putInt("fadeInTime", fadeInTime);
-        nbt.putInt("fadeOutTime", fadeOutTime);
+        nbt.putByte("format", FORMAT_PACKED);
+        nbt.putLong("settings", config.packed());
+        if (chord.length > 0) {
+            nbt.putIntArray("chord", chord);
+        }
         super.writeNbt(nbt);
     }
 
     /**
-     * 从 NBT 标签中读取数据，用于从存档加载方块实体。
+     * 从 NBT 标签中读取数据，用于从存档加载方块实体，以及在客户端读取打包的同步数据。
+     *
+     * 仍然可以读取每个属性一个键的旧格式，这样的方块实体在区块下一次保存时写为新格式。
      *
      * @param nbt 包含数据的 NBT 化合物。
      */
     @Override
     public void readNbt(NbtCompound nbt) {
         super.readNbt(nbt);
-        this.note = nbt.getInt("note");
-        this.sustainTime = nbt.getInt("sustainTime");
-        this.velocity = nbt.getInt("velocity");
-        this.delayedPlayingTime = nbt.getInt("delayedPlayingTime");
-        this.fadeInTime = nbt.getInt("fadeInTime");
-        this.fadeOutTime = nbt.getInt("fadeOutTime");
+        if (nbt.contains("sync")) {
+            readSyncNbt(nbt);
+            return;
+        }
+        if (nbt.getByte("format") == FORMAT_PACKED) {
+            this.config = NoteConfig.fromPacked(nbt.getLong("settings"));
+            this.chord = normalizeChord(this.config.note(), nbt.getIntArray("chord"));
+            return;
+        }
+        // 旧格式
+        this.config = NoteConfig.of(nbt.getInt("note"), nbt.getInt("velocity"), nbt.getInt("sustainTime"),
+                nbt.getInt("delayedPlayingTime"), nbt.getInt("fadeInTime"), nbt.getInt("fadeOutTime"));
+        this.chord = normalizeChord(this.config.note(), nbt.getIntArray("chord"));
     }
 
     /**
-     * 创建一个数据同步数据包，当方块在客户端上需要更新时调用 (例如通过 {@code world.updateListeners})。
+     * 创建一个数据同步数据包，当方块状态在客户端上需要更新时由原版调用。
+     * 内容与 {@link #toInitialChunkDataNbt()} 相同。
      *
      * @return 用于更新客户端方块实体的 S2C 数据包。
      */
@@ -180,14 +196,48 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
     }
 
     /**
-     * 获取初始区块加载时发送到客户端的 NBT 数据。
-     * 这确保了当玩家进入一个新区块时，方块实体的数据能正确同步。
+     * 创建刻结束时的同步数据包，由 {@link BlockEntitySyncQueue} 发送。
+     * 数值属性总是以一个 long 整体发送，和弦只在改变时发送。
+     */
+    Packet<ClientPlayPacketListener> toDeltaUpdatePacket() {
+        NbtCompound nbt = new NbtCompound();
+        nbt.putLong("sync", config.packed());
+        nbt.putBoolean("delta", true);
+        if ((this.dirtyFields & DIRTY_CHORD) != 0) {
+            nbt.putIntArray("chord", chord);
+        }
+        return BlockEntityUpdateS2CPacket.create(this, blockEntity -> nbt);
+    }
+
+    /**
+     * 获取区块加载时发送到客户端的数据。
+     *
+     * 不使用保存格式，而是把六个数值属性打包为一个 long，和弦只在非空时附加，
+     * 加载一个放满音符盒的区块时每个方块实体只需要十几个字节。
      *
      * @return 包含初始数据的 NBT 化合物。
      */
     @Override
     public NbtCompound toInitialChunkDataNbt() {
-        return createNbt();
+        NbtCompound nbt = new NbtCompound();
+        nbt.putLong("sync", config.packed());
+        if (chord.length > 0) {
+            nbt.putIntArray("chord", chord);
+        }
+        return nbt;
+    }
+
+    /**
+     * 读取 {@link #toInitialChunkDataNbt()} 或 {@link #toDeltaUpdatePacket()} 的数据。
+     * 增量同步中没有和弦时表示和弦没有改变，完整同步中没有和弦时表示和弦为空。
+     */
+    private void readSyncNbt(NbtCompound nbt) {
+        this.config = NoteConfig.fromPacked(nbt.getLong("sync"));
+        if (nbt.contains("chord")) {
+            this.chord = normalizeChord(this.config.note(), nbt.getIntArray("chord"));
+        } else if (!nbt.getBoolean("delta")) {
+            this.chord = new int[0];
+        }
     }
 
     /**
@@ -196,7 +246,7 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 音高值 (0-127)。
      */
     public int getNote() {
-        return this.note;
+        return this.config.note();
     }
 
     /**
@@ -205,7 +255,7 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 持续时间 (游戏刻)。
      */
     public int getSustain() {
-        return this.sustainTime;
+        return this.config.sustain();
     }
 
     /**
@@ -214,22 +264,126 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 力度值 (0-127)。
      */
     public int getVelocity() {
-        return this.velocity;
+        return this.config.velocity();
+    }
+
+    /**
+     * 获取当前的数值属性。
+     */
+    public NoteConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * 获取和弦中除主音符以外的其他音符，每个元素为 {@code 音符 << 8 | 力度}。
+     * 返回的数组不可修改。
+     */
+    public int[] getChord() {
+        return this.chord;
+    }
+
+    /**
+     * 把主音符和和弦中的其他音符依次写入数组。
+     *
+     * @param notes      至少 {@link #MAX_CHORD_SIZE} 个元素。
+     * @param velocities 至少 {@link #MAX_CHORD_SIZE} 个元素。
+     * @return 写入的音符数。
+     */
+    public int fillChord(int[] notes, int[] velocities) {
+        notes[0] = this.config.note();
+        velocities[0] = this.config.velocity();
+        for (int i = 0; i < this.chord.length; i++) {
+            notes[i + 1] = chordNote(this.chord[i]);
+            velocities[i + 1] = chordVelocity(this.chord[i]);
+        }
+        return this.chord.length + 1;
+    }
+
+    public static int packChordNote(int note, int velocity) {
+        return (note & 0xFF) << 8 | (velocity & 0xFF);
+    }
+
+    public static int chordNote(int packed) {
+        return (packed >> 8) & 0xFF;
+    }
+
+    public static int chordVelocity(int packed) {
+        return packed & 0xFF;
+    }
+
+    /**
+     * 移调并缩放和弦中的其他音符，超出范围的音符和力度被限制在 0-127。
+     * 结果可能包含重复或与主音符相同的音符，由 {@link #updateValues} 去除。
+     *
+     * @param semitones     移调的半音数。
+     * @param velocityScale 力度的倍数。
+     * @return 新的数组，参数不被修改。
+     */
+    public static int[] transformChord(int[] chord, int semitones, double velocityScale) {
+        int[] result = new int[chord.length];
+        for (int i = 0; i < chord.length; i++) {
+            result[i] = packChordNote(MathHelper.clamp(chordNote(chord[i]) + semitones, 0, 127),
+                    MathHelper.clamp((int) Math.round(chordVelocity(chord[i]) * velocityScale), 0, 127));
+        }
+        return result;
+    }
+
+    /**
+     * 把和弦数据限制在有效范围内：去掉主音符和重复的音符，按音符升序排列，
+     * 并截断到 {@link #MAX_CHORD_SIZE} - 1 个。
+     */
+    private static int[] normalizeChord(int rootNote, int[] packed) {
+        if (packed.length == 0) {
+            return packed;
+        }
+        int root = MathHelper.clamp(rootNote, 0, 127);
+        boolean[] seen = new boolean[128];
+        seen[root] = true;
+        int[] byNote = new int[128];
+        for (int value : packed) {
+            int note = MathHelper.clamp(chordNote(value), 0, 127);
+            if (!seen[note]) {
+                seen[note] = true;
+                byNote[note] = packChordNote(note, MathHelper.clamp(chordVelocity(value), 0, 127));
+            }
+        }
+        int[] result = new int[MAX_CHORD_SIZE - 1];
+        int count = 0;
+        for (int note = 0; note < 128 && count < result.length; note++) {
+            if (seen[note] && note != root) {
+                result[count++] = byNote[note];
+            }
+        }
+        return Arrays.copyOf(result, count);
     }
 
     /**
-     * 根据音符盒下方的方块动态获取乐器ID。
+     * 根据音符盒下方的方块获取乐器ID。
+     *
+     * 结果会被缓存，直到 {@link #invalidateInstrument()} 被调用或乐器映射被重新加载，
+     * 触发音符和同步界面时不需要查询注册表。
      *
      * @return GM 乐器ID (0-128)。如果下方没有对应乐器或世界未加载，则返回0 (钢琴)。
      */
     public int getInstrumentId() {
-        if (this.world != null) {
+        if (this.world == null) {
+            return 0;
+        }
+        int generation = InstrumentMap.generation();
+        if (this.cachedInstrumentId == UNRESOLVED_INSTRUMENT || this.cachedInstrumentGeneration != generation) {
             Block blockBelow = this.world.getBlockState(pos.down()).getBlock();
-            String blockId = Registries.BLOCK.getId(blockBelow).toString();
             // 从映射中查找乐器ID，如果找不到则使用默认值0。
-            return InstrumentMap.BLOCK_TO_GM_INSTRUMENT.getOrDefault(blockId, 0);
+            this.cachedInstrumentId = InstrumentMap.instrumentOf(blockBelow);
+            this.cachedInstrumentGeneration = generation;
         }
-        return 0;
+        return this.cachedInstrumentId;
+    }
+
+    /**
+     * 使缓存的乐器ID失效，在下方方块改变时调用。
+     */
+    public void invalidateInstrument() {
+        this.cachedInstrumentId = UNRESOLVED_INSTRUMENT;
     }
 
     /**
@@ -238,7 +392,7 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 延迟时间 (毫秒)。
      */
     public int getDelayedPlayingTime() {
-        return this.delayedPlayingTime;
+        return this.config.delay();
     }
 
     /**
@@ -247,7 +401,7 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 淡入时间 (刻)。
      */
     public int getFadeInTime() {
-        return this.fadeInTime;
+        return this.config.fadeIn();
     }
 
     /**
@@ -256,7 +410,7 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @return 淡出时间 (刻)。
      */
     public int getFadeOutTime() {
-        return this.fadeOutTime;
+        return this.config.fadeOut();
     }
 
     /**
@@ -267,37 +421,75 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
      * @param velocity 新的力度 (0-127)。
      * @param sustain  新的持续时间 (0-400)。
      * @param delay    新的延迟时间 (0-5000)。
+     * @param chord    和弦中的其他音符，每个元素为 {@code 音符 << 8 | 力度}。
      */
-    public void updateValues(int note, int velocity, int sustain, int delay, int fadeIn, int fadeOut) {
-        this.note = Math.max(0, Math.min(127, note));
-        this.velocity = Math.max(0, Math.min(127, velocity));
-        this.sustainTime = Math.max(0, Math.min(400, sustain));
-        this.delayedPlayingTime = Math.max(0, Math.min(5000, delay));
-        this.fadeInTime = Math.max(0, Math.min(5000, fadeIn));
-        this.fadeOutTime = Math.max(0, Math.min(5000, fadeOut));
-        markDirty();
+    public void updateValues(int note, int velocity, int sustain, int delay, int fadeIn, int fadeOut, int[] chord) {
+        NoteConfig oldConfig = this.config;
+        int[] oldChord = this.chord;
+        this.config = NoteConfig.of(
+                Math.max(0, Math.min(127, note)),
+                Math.max(0, Math.min(127, velocity)),
+                Math.max(0, Math.min(400, sustain)),
+                Math.max(0, Math.min(5000, delay)),
+                Math.max(0, Math.min(5000, fadeIn)),
+                Math.max(0, Math.min(5000, fadeOut)));
+        this.chord = normalizeChord(this.config.note(), chord);
+        markFieldsDirty(oldConfig.diff(this.config)
+                | (!Arrays.equals(oldChord, this.chord) ? DIRTY_CHORD : 0));
         if (world != null && !world.isClient()) {
             BlockState currentState = world.getBlockState(pos);
-            NotePitch newPitch = NotePitch.fromMidiNote(this.note);
+            NotePitch newPitch = NotePitch.fromMidiNote(this.config.note());
             if (currentState.getBlock() instanceof ExtendedNoteBlockBlock
                     && currentState.get(ExtendedNoteBlockBlock.PITCH) != newPitch) {
                 // 更新 PITCH 属性
                 world.setBlockState(pos, currentState.with(ExtendedNoteBlockBlock.PITCH, newPitch),
                         Block.NOTIFY_LISTENERS);
+                // 方块状态改变后原版会在区块刷新时通过 toUpdatePacket 发送完整数据，
+                // 其中已经包含到此为止的所有改变，队列不再重复发送
+                this.dirtyFields = 0;
             }
         }
     }
 
     /**
-     * 标记方块实体为“脏数据”，这会导致它被保存到磁盘，
-     * 并通过调用 {@code world.updateListeners} 将更新同步到客户端。
+     * 标记方块实体为“脏数据”，这会导致它被保存到磁盘并同步到客户端。
+     * 调用者无法说明改变了哪些字段，因此同步所有字段。
      */
     @Override
     public void markDirty() {
-        if (world != null) {
-            world.updateListeners(pos, getCachedState(), getCachedState(), Block.NOTIFY_LISTENERS);
+        markFieldsDirty(DIRTY_ALL);
+    }
+
+    /**
+     * 标记部分字段已改变。区块会被标记为需要保存，改变的字段记录在位掩码中，
+     * 在刻结束时由 {@link BlockEntitySyncQueue} 合并为一次增量同步，而不是每次修改都同步整个方块实体。
+     *
+     * @param fields 改变的字段，见 {@code DIRTY_*} 常量。
+     */
+    public void markFieldsDirty(int fields) {
+        if (fields == 0) {
+            return;
         }
         super.markDirty();
+        if (this.world instanceof ServerWorld serverWorld) {
+            if (!this.syncQueued) {
+                this.syncQueued = true;
+                BlockEntitySyncQueue.enqueue(serverWorld, this);
+            }
+            this.dirtyFields |= fields;
+        }
+    }
+
+    /**
+     * 是否有尚未同步的字段。
+     */
+    boolean hasDirtyFields() {
+        return this.dirtyFields != 0;
+    }
+
+    void clearDirtyFields() {
+        this.dirtyFields = 0;
+        this.syncQueued = false;
     }
 
     /**
@@ -337,12 +529,13 @@ public class ExtendedNoteBlockEntity extends BlockEntity implements ExtendedScre
     @Override
     public void writeScreenOpeningData(ServerPlayerEntity player, PacketByteBuf buf) {
         buf.writeBlockPos(this.pos);
-        buf.writeInt(this.note);
-        buf.writeInt(this.velocity);
-        buf.writeInt(this.sustainTime);
-        buf.writeInt(this.delayedPlayingTime);
-        buf.writeInt(this.fadeInTime);
-        buf.writeInt(this.fadeOutTime);
+        buf.writeInt(this.config.note());
+        buf.writeInt(this.config.velocity());
+        buf.writeInt(this.config.sustain());
+        buf.writeInt(this.config.delay());
+        buf.writeInt(this.config.fadeIn());
+        buf.writeInt(this.config.fadeOut());
         buf.writeInt(this.getInstrumentId());
+        buf.writeIntArray(this.chord);
     }
 }
\ No newline at end of file
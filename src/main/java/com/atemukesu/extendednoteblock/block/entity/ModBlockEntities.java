@@ -10,6 +10,7 @@ import net.minecraft.util.Identifier;
 
 public class ModBlockEntities {
     public static BlockEntityType<ExtendedNoteBlockEntity> EXTENDED_NOTE_BLOCK_ENTITY;
+    public static BlockEntityType<SequencerBlockEntity> SEQUENCER_BLOCK_ENTITY;
 
     public static void registerBlockEntities() {
         ExtendedNoteBlock.LOGGER.info("Registering Block Entities for " + ExtendedNoteBlock.MOD_ID);
@@ -19,5 +20,11 @@ public class ModBlockEntities {
                 FabricBlockEntityTypeBuilder.<ExtendedNoteBlockEntity>create(
                         ExtendedNoteBlockEntity::new,
                         ModBlocks.EXTENDED_NOTE_BLOCK).build());
+        SEQUENCER_BLOCK_ENTITY = Registry.register(
+                Registries.BLOCK_ENTITY_TYPE,
+                new Identifier(ExtendedNoteBlock.MOD_ID, "sequencer_block_entity"),
+                FabricBlockEntityTypeBuilder.<SequencerBlockEntity>create(
+                        SequencerBlockEntity::new,
+                        ModBlocks.SEQUENCER).build());
     }
 }
\ No newline at end of file
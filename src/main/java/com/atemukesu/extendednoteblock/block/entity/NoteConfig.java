@@ -0,0 +1,170 @@
+package com.atemukesu.extendednoteblock.block.entity;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.MathHelper;
+
+/**
+ * 扩展音符盒的六个数值属性 (音高、力度、持续时间、延迟、淡入、淡出)，不可变并且被驻留。
+ *
+ * 大型作品中的大部分音符盒使用相同的设置，方块实体只保存对共享实例的引用，而不是各自的六个整数。
+ * 每个配置可以无损地打包为一个 long (见 {@link #packed()})，这也是保存和同步使用的格式，
+ * 驻留表以打包值为键。驻留表达到上限时被清空，之后创建的配置不再与之前的实例共享，
+ * 所以比较配置时应使用 {@link #equals(Object)} 而不是引用比较。
+ *
+ * 此类是线程安全的，客户端和集成服务器共用同一个驻留表。
+ */
+public final class NoteConfig {
+    /**
+     * 属性的索引，与方块实体属性委托的索引和 {@code DIRTY_*} 位的顺序相同。
+     */
+    public static final int NOTE = 0;
+    public static final int VELOCITY = 1;
+    public static final int SUSTAIN = 2;
+    public static final int DELAY = 3;
+    public static final int FADE_IN = 4;
+    public static final int FADE_OUT = 5;
+    public static final int PROPERTY_COUNT = 6;
+
+    // 打包为一个 long 时每个属性的位数和起始位
+    private static final int NOTE_BITS = 7;
+    private static final int VELOCITY_BITS = 7;
+    private static final int SUSTAIN_BITS = 9;
+    private static final int TIME_BITS = 13;
+    private static final int[] BITS = { NOTE_BITS, VELOCITY_BITS, SUSTAIN_BITS, TIME_BITS, TIME_BITS, TIME_BITS };
+    private static final int[] SHIFTS = new int[PROPERTY_COUNT];
+    // 驻留表的容量上限，界面中拖动滑块会产生许多只短暂使用的配置
+    private static final int MAX_INTERNED = 1 << 16;
+
+    private static final Long2ObjectOpenHashMap<NoteConfig> interned = new Long2ObjectOpenHashMap<>();
+
+    static {
+        int shift = 0;
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            SHIFTS[i] = shift;
+            shift += BITS[i];
+        }
+    }
+
+    /**
+     * 新放置的音符盒的设置：中央C，力度 100，持续 40 刻。
+     */
+    public static final NoteConfig DEFAULT = of(60, 100, 40, 0, 0, 0);
+
+    private final long packed;
+
+    private NoteConfig(long packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * 获取具有指定属性的配置。超出位数的值被截断到可表示的范围，有效范围的检查由调用者负责。
+     */
+    public static NoteConfig of(int note, int velocity, int sustain, int delay, int fadeIn, int fadeOut) {
+        return fromPacked(pack(note, NOTE) | pack(velocity, VELOCITY) | pack(sustain, SUSTAIN)
+                | pack(delay, DELAY) | pack(fadeIn, FADE_IN) | pack(fadeOut, FADE_OUT));
+    }
+
+    /**
+     * 获取 {@link #packed()} 的结果对应的配置。未使用的高位被忽略。
+     */
+    public static NoteConfig fromPacked(long packed) {
+        long key = packed & ((1L << (SHIFTS[FADE_OUT] + BITS[FADE_OUT])) - 1);
+        synchronized (interned) {
+            NoteConfig config = interned.get(key);
+            if (config == null) {
+                if (interned.size() >= MAX_INTERNED) {
+                    interned.clear();
+                }
+                config = new NoteConfig(key);
+                interned.put(key, config);
+            }
+            return config;
+        }
+    }
+
+    /**
+     * 获取一个属性。
+     *
+     * @param property 属性的索引，见 {@link #NOTE} 等常量。
+     */
+    public int get(int property) {
+        return (int) (packed >>> SHIFTS[property]) & ((1 << BITS[property]) - 1);
+    }
+
+    /**
+     * 获取把一个属性改为指定值后的配置，值没有改变时返回自身。
+     */
+    public NoteConfig with(int property, int value) {
+        long cleared = packed & ~(((1L << BITS[property]) - 1) << SHIFTS[property]);
+        long updated = cleared | pack(value, property);
+        return updated == packed ? this : fromPacked(updated);
+    }
+
+    /**
+     * 获取与另一个配置不同的属性，第 i 位对应索引为 i 的属性。
+     */
+    public int diff(NoteConfig other) {
+        if (other.packed == packed) {
+            return 0;
+        }
+        int mask = 0;
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            if (get(i) != other.get(i)) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 获取打包为一个 long 的所有属性，用于保存和网络同步。
+     */
+    public long packed() {
+        return packed;
+    }
+
+    public int note() {
+        return get(NOTE);
+    }
+
+    public int velocity() {
+        return get(VELOCITY);
+    }
+
+    public int sustain() {
+        return get(SUSTAIN);
+    }
+
+    public int delay() {
+        return get(DELAY);
+    }
+
+    public int fadeIn() {
+        return get(FADE_IN);
+    }
+
+    public int fadeOut() {
+        return get(FADE_OUT);
+    }
+
+    private static long pack(int value, int property) {
+        int bits = BITS[property];
+        return (long) MathHelper.clamp(value, 0, (1 << bits) - 1) << SHIFTS[property];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof NoteConfig other && other.packed == packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(packed);
+    }
+
+    @Override
+    public String toString() {
+        return "NoteConfig[note=" + note() + ", velocity=" + velocity() + ", sustain=" + sustain() + ", delay="
+                + delay() + ", fadeIn=" + fadeIn() + ", fadeOut=" + fadeOut() + "]";
+    }
+}
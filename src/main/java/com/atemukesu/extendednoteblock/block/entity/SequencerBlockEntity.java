@@ -0,0 +1,227 @@
+package com.atemukesu.extendednoteblock.block.entity;
+
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
+import com.atemukesu.extendednoteblock.song.CachedSong;
+import com.atemukesu.extendednoteblock.song.EventSource;
+import com.atemukesu.extendednoteblock.song.NoteEvents;
+import com.atemukesu.extendednoteblock.song.SongLibrary;
+import com.atemukesu.extendednoteblock.song.SongPlayback;
+import com.atemukesu.extendednoteblock.util.TimingWheel;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 音序器的方块实体。
+ *
+ * 一个音序器保存一整段音符事件，收到红石信号后由 {@link NoteTriggerScheduler} 的时间轮按刻播放，
+ * 不需要为每个音符放置扩展音符盒或中继器。
+ *
+ * 事件有两种来源：
+ * <ul>
+ * <li>直接保存在方块实体中的紧凑 int 数组，编码见 {@link NoteEvents}，最多 {@value #MAX_EVENTS} 个事件。</li>
+ * <li>从歌曲文件导入的歌曲 ({@link SongLibrary})，方块实体只保存歌曲缓存的哈希，
+ * 播放时按需分段读取，长歌曲不会占用方块实体或区块存档的空间。</li>
+ * </ul>
+ *
+ * 播放进度 (下一个事件的下标) 随方块实体保存，时间轮中尚未触发的条目随世界保存，
+ * 因此音序器在服务器重启后会从中断的位置继续播放。
+ */
+public class SequencerBlockEntity extends BlockEntity {
+    /**
+     * 直接保存在方块实体中的最大事件数。
+     */
+    public static final int MAX_EVENTS = 65536;
+    private static final int RUN_ID_MASK = (1 << 24) - 1;
+
+    private int[] events = new int[0];
+    // 导入的歌曲缓存的哈希和文件名，为 null 时使用 events
+    @Nullable
+    private String songHash;
+    @Nullable
+    private String songName;
+    private boolean playing;
+    // 每次开始或停止播放时递增，时间轮中属于之前播放的条目到期时会被忽略
+    private int runId;
+    // 从 NBT 读取的歌曲在第一次使用时才打开缓存，此前为 null，进度保存在 restoredCursor 中
+    @Nullable
+    private transient SongPlayback playback = new SongPlayback(EventSource.EMPTY);
+    private transient int restoredCursor;
+    private transient int scheduledHandle = TimingWheel.INVALID_HANDLE;
+
+    public SequencerBlockEntity(BlockPos pos, BlockState state) {
+        super(ModBlockEntities.SEQUENCER_BLOCK_ENTITY, pos, state);
+    }
+
+    /**
+     * 替换音序器中的所有事件并停止当前的播放。
+     *
+     * @param packedEvents 编码见 {@link NoteEvents}，可以不排序，超出 {@link #MAX_EVENTS} 的部分被丢弃。
+     */
+    public void setEvents(ServerWorld world, int[] packedEvents) {
+        stop(world);
+        this.events = NoteEvents.sort(packedEvents, Math.min(MAX_EVENTS, packedEvents.length / NoteEvents.STRIDE));
+        this.songHash = null;
+        this.songName = null;
+        this.playback = new SongPlayback(EventSource.of(this.events));
+        markDirty();
+    }
+
+    /**
+     * 让音序器播放一首导入的歌曲，并停止当前的播放。
+     */
+    public void setSong(ServerWorld world, CachedSong song, String name) {
+        stop(world);
+        this.events = new int[0];
+        this.songHash = song.getHash();
+        this.songName = name;
+        this.playback = new SongPlayback(song);
+        markDirty();
+    }
+
+    /**
+     * 从头开始播放。正在播放时会重新开始。
+     */
+    public void start(ServerWorld world) {
+        stop(world);
+        int firstTick = playback().nextTick();
+        if (firstTick < 0) {
+            return;
+        }
+        this.playing = true;
+        if (firstTick == 0) {
+            playStep(world, this.runId);
+        } else {
+            this.scheduledHandle = NoteTriggerScheduler.scheduleTicks(world, this.pos.asLong(), firstTick,
+                    NoteTriggerScheduler.sequencerTag(this.runId));
+            markDirty();
+        }
+    }
+
+    /**
+     * 停止播放。已经开始的声音不受影响。
+     */
+    public void stop(ServerWorld world) {
+        NoteTriggerScheduler.cancel(world, this.scheduledHandle);
+        this.scheduledHandle = TimingWheel.INVALID_HANDLE;
+        this.runId = (this.runId + 1) & RUN_ID_MASK;
+        playback().seek(0);
+        if (this.playing) {
+            this.playing = false;
+            markDirty();
+        }
+    }
+
+    /**
+     * 播放当前刻的所有事件，并安排下一组事件。由 {@link NoteTriggerScheduler} 在服务器主线程上调用。
+     *
+     * @param runId 安排这次触发时的播放编号，与当前编号不同时忽略。
+     */
+    public void playStep(ServerWorld world, int runId) {
+        if (!this.playing || runId != this.runId) {
+            return;
+        }
+        this.scheduledHandle = TimingWheel.INVALID_HANDLE;
+        int delay = playback().playStep(world, this.pos);
+        if (delay >= 0) {
+            this.scheduledHandle = NoteTriggerScheduler.scheduleTicks(world, this.pos.asLong(), delay,
+                    NoteTriggerScheduler.sequencerTag(this.runId));
+        } else {
+            this.playing = false;
+            playback().seek(0);
+        }
+        markDirty();
+    }
+
+    public int getEventCount() {
+        return playback().getSource().eventCount();
+    }
+
+    /**
+     * 获取最后一个事件开始的刻数。
+     */
+    public int getLengthTicks() {
+        return playback().getSource().lengthTicks();
+    }
+
+    public boolean isPlaying() {
+        return this.playing;
+    }
+
+    /**
+     * 获取下一个要播放的事件的下标。
+     */
+    public int getCursor() {
+        return this.playback != null ? this.playback.getCursor() : this.restoredCursor;
+    }
+
+    /**
+     * 获取导入的歌曲的文件名，直接保存事件时返回 null。
+     */
+    @Nullable
+    public String getSongName() {
+        return this.songName;
+    }
+
+    @Override
+    protected void writeNbt(NbtCompound nbt) {
+        if (this.songHash != null) {
+            nbt.putString("song", this.songHash);
+            nbt.putString("songName", this.songName != null ? this.songName : "");
+        } else {
+            nbt.putIntArray("events", this.events);
+        }
+        nbt.putInt("cursor", getCursor());
+        nbt.putBoolean("playing", this.playing);
+        nbt.putInt("run", this.runId);
+        super.writeNbt(nbt);
+    }
+
+    @Override
+    public void readNbt(NbtCompound nbt) {
+        super.readNbt(nbt);
+        this.runId = nbt.getInt("run") & RUN_ID_MASK;
+        this.playing = nbt.getBoolean("playing");
+        this.restoredCursor = this.playing ? nbt.getInt("cursor") : 0;
+        if (nbt.contains("song")) {
+            this.songHash = nbt.getString("song");
+            this.songName = nbt.getString("songName");
+            this.events = new int[0];
+            // 打开歌曲缓存需要读取文件，不在区块加载时进行
+            this.playback = null;
+        } else {
+            int[] stored = nbt.getIntArray("events");
+            this.songHash = null;
+            this.songName = null;
+            this.events = NoteEvents.sort(stored, Math.min(MAX_EVENTS, stored.length / NoteEvents.STRIDE));
+            this.playback = restorePlayback(EventSource.of(this.events));
+        }
+    }
+
+    /**
+     * 获取播放状态，必要时打开从 NBT 读取的歌曲的缓存。
+     */
+    private SongPlayback playback() {
+        if (this.playback == null) {
+            CachedSong song = this.songHash != null ? SongLibrary.getCached(this.songHash) : null;
+            // 缓存被删除时音序器保留歌曲的引用，但没有可播放的事件
+            this.playback = restorePlayback(song != null ? song : EventSource.EMPTY);
+        }
+        return this.playback;
+    }
+
+    /**
+     * 创建播放状态并恢复保存的进度，进度已经超出事件范围时停止播放。
+     */
+    private SongPlayback restorePlayback(EventSource source) {
+        SongPlayback restored = new SongPlayback(source);
+        if (this.playing) {
+            restored.seek(this.restoredCursor);
+            this.playing = !restored.isFinished();
+        }
+        return restored;
+    }
+}
@@ -0,0 +1,387 @@
+package com.atemukesu.extendednoteblock.command;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import com.atemukesu.extendednoteblock.block.NoteBlockClipboard;
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
+import com.atemukesu.extendednoteblock.block.entity.SequencerBlockEntity;
+import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+import com.atemukesu.extendednoteblock.sound.SoundStats;
+import com.atemukesu.extendednoteblock.sound.WorldSoundEngine;
+import com.atemukesu.extendednoteblock.song.SongLibrary;
+import com.atemukesu.extendednoteblock.song.SongPlayers;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.argument.BlockPosArgumentType;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 注册模组的服务器命令 {@code /enb}。
+ *
+ * <ul>
+ * <li>{@code /enb stats}：显示每个世界和全局的声音引擎统计 (1 分钟 / 5 分钟平均值)。</li>
+ * <li>{@code /enb stats dump}：把统计快照写入服务器目录下的 JSON 文件。</li>
+ * <li>{@code /enb song list}：列出歌曲文件夹中的歌曲 (见 {@link SongLibrary})。</li>
+ * <li>{@code /enb song load <位置> <文件名>}：在后台导入歌曲，完成后放入指定位置的音序器。</li>
+ * <li>{@code /enb song play <位置> <文件名>}：在后台导入歌曲，完成后不放置方块直接在指定位置播放。</li>
+ * <li>{@code /enb song playing}：列出正在播放的歌曲。</li>
+ * <li>{@code /enb song stop [编号]}：停止一首或所有正在播放的歌曲。</li>
+ * <li>{@code /enb copy <角> <角>}：把区域内扩展音符盒的设置复制到执行者的剪贴板 (见 {@link NoteBlockClipboard})。</li>
+ * <li>{@code /enb paste [移调] [力度倍数]}：把剪贴板粘贴到相对执行者的同一位置，只修改已有的扩展音符盒。</li>
+ * </ul>
+ */
+public class ModCommands {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int ONE_MINUTE = 60;
+    private static final int FIVE_MINUTES = 300;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    // /enb stats 中的网络统计行，每行一种事件的数量和字节数
+    private static final String[] NETWORK_TYPES = { "start", "volume", "stop", "bundle" };
+    private static final int[] NETWORK_COUNT_METRICS = { SoundStats.START_EVENTS, SoundStats.VOLUME_EVENTS,
+            SoundStats.STOP_EVENTS, SoundStats.BUNDLE_PACKETS };
+    private static final int[] NETWORK_BYTES_METRICS = { SoundStats.START_BYTES, SoundStats.VOLUME_BYTES,
+            SoundStats.STOP_BYTES, SoundStats.BUNDLE_BYTES };
+
+    public static void registerCommands() {
+        CommandRegistrationCallback.EVENT
+                .register((dispatcher, registryAccess, environment) -> register(dispatcher));
+    }
+
+    private static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(CommandManager.literal("enb")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(CommandManager.literal("stats")
+                        .executes(ModCommands::showStats)
+                        .then(CommandManager.literal("dump")
+                                .executes(ModCommands::dumpStats)))
+                .then(CommandManager.literal("song")
+                        .then(CommandManager.literal("list")
+                                .executes(ModCommands::listSongs))
+                        .then(CommandManager.literal("load")
+                                .then(CommandManager.argument("pos", BlockPosArgumentType.blockPos())
+                                        .then(CommandManager.argument("file", StringArgumentType.greedyString())
+                                                .suggests((context, builder) -> CommandSource
+                                                        .suggestMatching(SongLibrary.listSongs(), builder))
+                                                .executes(ModCommands::loadSong))))
+                        .then(CommandManager.literal("play")
+                                .then(CommandManager.argument("pos", BlockPosArgumentType.blockPos())
+                                        .then(CommandManager.argument("file", StringArgumentType.greedyString())
+                                                .suggests((context, builder) -> CommandSource
+                                                        .suggestMatching(SongLibrary.listSongs(), builder))
+                                                .executes(ModCommands::playSong))))
+                        .then(CommandManager.literal("playing")
+                                .executes(ModCommands::listPlaying))
+                        .then(CommandManager.literal("stop")
+                                .executes(ModCommands::stopAllSongs)
+                                .then(CommandManager.argument("id", IntegerArgumentType.integer(1))
+                                        .executes(ModCommands::stopSong))))
+                .then(CommandManager.literal("copy")
+                        .then(CommandManager.argument("from", BlockPosArgumentType.blockPos())
+                                .then(CommandManager.argument("to", BlockPosArgumentType.blockPos())
+                                        .executes(ModCommands::copyNoteBlocks))))
+                .then(CommandManager.literal("paste")
+                        .executes(context -> pasteNoteBlocks(context, 0, 1.0))
+                        .then(CommandManager.argument("transpose", IntegerArgumentType.integer(-127, 127))
+                                .executes(context -> pasteNoteBlocks(context,
+                                        IntegerArgumentType.getInteger(context, "transpose"), 1.0))
+                                .then(CommandManager.argument("velocityScale", DoubleArgumentType.doubleArg(0.0, 8.0))
+                                        .executes(context -> pasteNoteBlocks(context,
+                                                IntegerArgumentType.getInteger(context, "transpose"),
+                                                DoubleArgumentType.getDouble(context, "velocityScale"))))));
+    }
+
+    private static int listSongs(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        List<String> songs = SongLibrary.listSongs();
+        if (songs.isEmpty()) {
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.list.empty",
+                    SongLibrary.DIRECTORY_NAME), false);
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.list.header", songs.size()),
+                false);
+        for (String song : songs) {
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.list.entry", song), false);
+        }
+        return songs.size();
+    }
+
+    private static int playSong(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        ServerWorld world = source.getWorld();
+        BlockPos pos = BlockPosArgumentType.getLoadedBlockPos(context, "pos");
+        String fileName = StringArgumentType.getString(context, "file");
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.load.started", fileName), false);
+        SongLibrary.load(fileName).whenCompleteAsync((song, error) -> {
+            if (error != null) {
+                ExtendedNoteBlock.LOGGER.warn("Failed to load song {}", fileName, error);
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.translatable("command.extendednoteblock.song.load.failed", fileName,
+                        String.valueOf(cause.getMessage())));
+                return;
+            }
+            int id = SongPlayers.play(world, pos, song, fileName);
+            if (id == 0) {
+                source.sendError(Text.translatable("command.extendednoteblock.song.play.empty", fileName));
+                return;
+            }
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.play.success", fileName, id,
+                    song.lengthTicks() / 20), true);
+        }, source.getServer());
+        return 1;
+    }
+
+    private static int listPlaying(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        List<SongPlayers.Player> players = SongPlayers.getPlayers();
+        if (players.isEmpty()) {
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.playing.empty"), false);
+            return 0;
+        }
+        for (SongPlayers.Player player : players) {
+            BlockPos pos = player.getPos();
+            String worldId = player.getWorld().getRegistryKey().getValue().toString();
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.playing.entry",
+                    player.getId(), player.getName(), worldId, pos.getX(), pos.getY(), pos.getZ(),
+                    Math.max(0, player.getPositionTicks()) / 20, player.getLengthTicks() / 20), false);
+        }
+        return players.size();
+    }
+
+    private static int stopSong(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        int id = IntegerArgumentType.getInteger(context, "id");
+        if (!SongPlayers.stop(id)) {
+            source.sendError(Text.translatable("command.extendednoteblock.song.stop.not_found", id));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.stop.success", 1), true);
+        return 1;
+    }
+
+    private static int stopAllSongs(CommandContext<ServerCommandSource> context) {
+        int stopped = SongPlayers.stopAll();
+        context.getSource().sendFeedback(
+                () -> Text.translatable("command.extendednoteblock.song.stop.success", stopped), true);
+        return stopped;
+    }
+
+    private static int loadSong(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        ServerWorld world = source.getWorld();
+        BlockPos pos = BlockPosArgumentType.getLoadedBlockPos(context, "pos");
+        String fileName = StringArgumentType.getString(context, "file");
+        if (!(world.getBlockEntity(pos) instanceof SequencerBlockEntity)) {
+            source.sendError(Text.translatable("command.extendednoteblock.song.not_sequencer"));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.load.started", fileName), false);
+        MinecraftServer server = source.getServer();
+        // 导入在后台线程上进行，结果回到服务器主线程上再放入音序器
+        SongLibrary.load(fileName).whenCompleteAsync((song, error) -> {
+            if (error != null) {
+                ExtendedNoteBlock.LOGGER.warn("Failed to load song {}", fileName, error);
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.translatable("command.extendednoteblock.song.load.failed", fileName,
+                        String.valueOf(cause.getMessage())));
+                return;
+            }
+            // 导入期间方块可能已经被破坏
+            if (!(world.getBlockEntity(pos) instanceof SequencerBlockEntity sequencer)) {
+                source.sendError(Text.translatable("command.extendednoteblock.song.not_sequencer"));
+                return;
+            }
+            sequencer.setSong(world, song, fileName);
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.song.load.success", fileName,
+                    song.eventCount(), song.lengthTicks() / 20), true);
+        }, server);
+        return 1;
+    }
+
+    private static int copyNoteBlocks(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        BlockPos from = BlockPosArgumentType.getLoadedBlockPos(context, "from");
+        BlockPos to = BlockPosArgumentType.getLoadedBlockPos(context, "to");
+        int copied = NoteBlockClipboard.copy(source, from, to);
+        if (copied == -1) {
+            source.sendError(Text.translatable("command.extendednoteblock.copy.too_large",
+                    NoteBlockClipboard.MAX_REGION_CHUNKS));
+            return 0;
+        }
+        if (copied == -2) {
+            source.sendError(Text.translatable("command.extendednoteblock.copy.too_many",
+                    NoteBlockClipboard.MAX_BLOCKS));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.copy.success", copied), false);
+        return copied;
+    }
+
+    private static int pasteNoteBlocks(CommandContext<ServerCommandSource> context, int transpose,
+            double velocityScale) {
+        ServerCommandSource source = context.getSource();
+        int count = NoteBlockClipboard.paste(source, transpose, velocityScale);
+        if (count == 0) {
+            source.sendError(Text.translatable("command.extendednoteblock.paste.empty"));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.paste.started", count), false);
+        return count;
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.header"), false);
+
+        int totalVoices = 0;
+        double[] started = new double[2];
+        double[] stopped = new double[2];
+        double[] tickMillis = new double[2];
+        // 所有世界每种网络事件的数量和字节数之和，按 NETWORK_TYPES 的顺序
+        double[][] networkCounts = new double[NETWORK_TYPES.length][2];
+        double[][] networkBytes = new double[NETWORK_TYPES.length][2];
+        for (WorldSoundEngine engine : ServerSoundManager.getEngines()) {
+            SoundStats stats = engine.getStats();
+            String worldId = engine.getWorld().getRegistryKey().getValue().toString();
+            int voices = engine.getActiveVoiceCount();
+            totalVoices += voices;
+            double[] worldStarted = averages(stats, SoundStats.VOICES_STARTED, 1.0);
+            double[] worldStopped = averages(stats, SoundStats.VOICES_STOPPED, 1.0);
+            // 每秒的纳秒数换算为每刻的毫秒数
+            double[] worldTick = averages(stats, SoundStats.TICK_NANOS,
+                    1.0 / (SoundStats.TICKS_PER_SECOND * NANOS_PER_MILLI));
+            accumulate(started, worldStarted);
+            accumulate(stopped, worldStopped);
+            accumulate(tickMillis, worldTick);
+            source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.world", worldId, voices,
+                    engine.getSustainingVoiceCount(),
+                    format(worldStarted), format(worldStopped), format(worldTick)), false);
+            for (int i = 0; i < NETWORK_TYPES.length; i++) {
+                double[] count = averages(stats, NETWORK_COUNT_METRICS[i], 1.0);
+                double[] bytes = averages(stats, NETWORK_BYTES_METRICS[i], 1.0);
+                accumulate(networkCounts[i], count);
+                accumulate(networkBytes[i], bytes);
+                sendNetworkLine(source, NETWORK_TYPES[i], count, bytes);
+            }
+            int worldPending = NoteTriggerScheduler.getPendingTriggerCount(engine.getWorld());
+            source.sendFeedback(
+                    () -> Text.translatable("command.extendednoteblock.stats.world.pending", worldPending), false);
+        }
+
+        int voices = totalVoices;
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.global", voices,
+                format(started), format(stopped), format(tickMillis)), false);
+        for (int i = 0; i < NETWORK_TYPES.length; i++) {
+            sendNetworkLine(source, NETWORK_TYPES[i], networkCounts[i], networkBytes[i]);
+        }
+
+        // 包括还没有声音引擎的世界中等待触发的音符
+        int pending = NoteTriggerScheduler.getPendingTriggerCount();
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.pending", pending), false);
+        return 1;
+    }
+
+    private static void sendNetworkLine(ServerCommandSource source, String type, double[] count, double[] bytes) {
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.network." + type, format(count),
+                format(bytes)), false);
+    }
+
+    private static int dumpStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        JsonObject root = new JsonObject();
+        root.addProperty("timestamp", System.currentTimeMillis());
+        root.addProperty("pendingTriggers", NoteTriggerScheduler.getPendingTriggerCount());
+
+        JsonArray worlds = new JsonArray();
+        List<SoundStats> allStats = new ArrayList<>();
+        for (WorldSoundEngine engine : ServerSoundManager.getEngines()) {
+            JsonObject world = new JsonObject();
+            world.addProperty("world", engine.getWorld().getRegistryKey().getValue().toString());
+            world.addProperty("activeVoices", engine.getActiveVoiceCount());
+            world.addProperty("sustainingVoices", engine.getSustainingVoiceCount());
+            world.addProperty("pendingTriggers", NoteTriggerScheduler.getPendingTriggerCount(engine.getWorld()));
+            world.add("perSecond", toJson(List.of(engine.getStats())));
+            worlds.add(world);
+            allStats.add(engine.getStats());
+        }
+        root.add("worlds", worlds);
+        root.add("total", toJson(allStats));
+
+        String fileName = ExtendedNoteBlock.MOD_ID + "-stats-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()) + ".json";
+        File file = new File(source.getServer().getRunDirectory(), fileName);
+        try (FileWriter writer = new FileWriter(file)) {
+            GSON.toJson(root, writer);
+        } catch (IOException e) {
+            ExtendedNoteBlock.LOGGER.error("Failed to write sound engine stats.", e);
+            source.sendError(Text.translatable("command.extendednoteblock.stats.dump.failed", e.getMessage()));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.translatable("command.extendednoteblock.stats.dump.success", fileName), true);
+        return 1;
+    }
+
+    /**
+     * 把一组统计的 1 分钟和 5 分钟每秒平均值之和写成 JSON。
+     */
+    private static JsonObject toJson(List<SoundStats> stats) {
+        JsonObject json = new JsonObject();
+        int historySeconds = 0;
+        for (SoundStats worldStats : stats) {
+            historySeconds = Math.max(historySeconds, worldStats.historySeconds());
+        }
+        json.addProperty("historySeconds", historySeconds);
+        JsonObject oneMinute = new JsonObject();
+        JsonObject fiveMinutes = new JsonObject();
+        for (int metric = 0; metric < SoundStats.METRIC_COUNT; metric++) {
+            double[] total = new double[2];
+            for (SoundStats worldStats : stats) {
+                accumulate(total, averages(worldStats, metric, 1.0));
+            }
+            oneMinute.addProperty(SoundStats.METRIC_NAMES[metric], total[0]);
+            fiveMinutes.addProperty(SoundStats.METRIC_NAMES[metric], total[1]);
+        }
+        json.add("oneMinute", oneMinute);
+        json.add("fiveMinutes", fiveMinutes);
+        return json;
+    }
+
+    private static double[] averages(SoundStats stats, int metric, double scale) {
+        return new double[] {
+                stats.perSecond(metric, ONE_MINUTE) * scale,
+                stats.perSecond(metric, FIVE_MINUTES) * scale
+        };
+    }
+
+    private static void accumulate(double[] total, double[] values) {
+        total[0] += values[0];
+        total[1] += values[1];
+    }
+
+    private static String format(double[] values) {
+        return String.format(Locale.ROOT, "%.2f / %.2f", values[0], values[1]);
+    }
+}
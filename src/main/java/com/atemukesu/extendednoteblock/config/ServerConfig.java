@@ -0,0 +1,31 @@
+package com.atemukesu.extendednoteblock.config;
+
+import com.atemukesu.extendednoteblock.sound.VoiceStealPolicy;
+
+/**
+ * 服务器端配置，保存在 {@code config/extendednoteblock-server.json}。
+ * 所有上限值小于等于 0 时表示不限制。
+ */
+public class ServerConfig {
+    /**
+     * 所有世界中同时播放的声音总数上限。
+     */
+    public int maxVoices = 4096;
+    /**
+     * 单个区块区段 (16x16x16) 内同时播放的声音数上限。
+     */
+    public int maxVoicesPerChunkSection = 64;
+    /**
+     * 单个玩家可听范围内同时播放的声音数上限，应低于客户端 OpenAL 的声源数量。
+     */
+    public int maxVoicesPerListener = 200;
+    /**
+     * 超出上限时选择被抢占声音的策略。
+     */
+    public VoiceStealPolicy voiceStealPolicy = VoiceStealPolicy.OLDEST;
+    /**
+     * 声音的可听半径 (方块)，与客户端的线性衰减距离保持一致。
+     * 声音事件只发送给这个半径内的玩家。
+     */
+    public int audibleRadius = 48;
+}
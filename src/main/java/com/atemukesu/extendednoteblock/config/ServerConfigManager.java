@@ -0,0 +1,80 @@
+package com.atemukesu.extendednoteblock.config;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.fabricmc.loader.api.FabricLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * 服务器端配置管理器，与客户端的 {@code ConfigManager} 使用相同的 JSON 格式和加载流程。
+ */
+public class ServerConfigManager {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String MOD_ID = ExtendedNoteBlock.MOD_ID;
+    private static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID + " Server Config");
+    private static File configFile;
+    private static ServerConfig config;
+
+    /**
+     * 初始化服务器配置。
+     * <p>
+     * 如果配置文件存在，则从中加载设置；否则使用默认值创建一个新的配置文件。
+     */
+    public static void initialize() {
+        File configDir = FabricLoader.getInstance().getConfigDir().toFile();
+        configFile = new File(configDir, MOD_ID + "-server.json");
+        if (configFile.exists()) {
+            loadConfig();
+        } else {
+            LOGGER.info("Server config file not found, creating a new one.");
+            config = new ServerConfig();
+            saveConfig();
+        }
+    }
+
+    private static void loadConfig() {
+        try (FileReader reader = new FileReader(configFile)) {
+            config = GSON.fromJson(reader, ServerConfig.class);
+            if (config == null) {
+                throw new IOException("Server config file is empty or corrupted.");
+            }
+            LOGGER.info("Successfully loaded server config file.");
+            // 写回一次，补全新版本中新增的字段
+            saveConfig();
+        } catch (Exception e) {
+            LOGGER.error("Failed to load server config file, using default values.", e);
+            config = new ServerConfig();
+            saveConfig();
+        }
+    }
+
+    /**
+     * 将当前配置保存到文件。
+     */
+    public static void saveConfig() {
+        try (FileWriter writer = new FileWriter(configFile)) {
+            GSON.toJson(config, writer);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save server config file.", e);
+        }
+    }
+
+    /**
+     * 获取已加载的服务器配置，如果尚未初始化则先初始化。
+     *
+     * @return 服务器配置实例。
+     */
+    public static ServerConfig getConfig() {
+        if (config == null) {
+            initialize();
+        }
+        return config;
+    }
+}
@@ -19,6 +19,7 @@ public class ModItemGroups {
                     .icon(() -> new ItemStack(ModBlocks.EXTENDED_NOTE_BLOCK))
                     .entries((displayContext, entries) -> {
                         entries.add(ModBlocks.EXTENDED_NOTE_BLOCK);
+                        entries.add(ModBlocks.SEQUENCER);
                     })
                     .build());
 
@@ -1,13 +1,33 @@
 package com.atemukesu.extendednoteblock.map;
 
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.TagKey;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+/**
+ * 音符盒下方的方块与 GM 乐器之间的映射。
+ *
+ * {@link #BLOCK_TO_GM_INSTRUMENT} 是内置的默认映射，以方块ID字符串为键。
+ * 服务器启动和每次 {@code /reload} 后，默认映射与数据包中的覆盖 (见 {@link InstrumentMapLoader})
+ * 一起编译为以 {@link Block} 实例为键的查找表，整体替换当前的查找表，
+ * 之后的查询只是一次按对象身份的哈希查找，不再创建或比较字符串。
+ */
 public final class InstrumentMap {
+    /**
+     * 乐器数量，包括打击乐器组 {@link #DRUM_KIT}。
+     */
+    public static final int INSTRUMENT_COUNT = 129;
     public static final Map<String, Integer> BLOCK_TO_GM_INSTRUMENT;
-    public static final Map<Integer, String> GM_INSTRUMENT_TO_BLOCK;
     static {
         Map<String, Integer> blockIndexMap = new HashMap<>();
         blockIndexMap.put("minecraft:dirt", 0);
@@ -140,9 +160,6 @@ public final class InstrumentMap {
         blockIndexMap.put("minecraft:tuff", 127);
         blockIndexMap.put("minecraft:sandstone", 128);
         BLOCK_TO_GM_INSTRUMENT = Collections.unmodifiableMap(blockIndexMap);
-        GM_INSTRUMENT_TO_BLOCK = Collections.unmodifiableMap(
-                blockIndexMap.entrySet().stream()
-                        .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey)));
     }
     public static final Map<Integer, String> GM_INSTRUMENT_ID_TO_NAME;
     static {
@@ -278,4 +295,106 @@ public final class InstrumentMap {
         map.put(128, "Standard Drum Kit");
         GM_INSTRUMENT_ID_TO_NAME = Collections.unmodifiableMap(map);
     }
+
+    /**
+     * 打击乐器组 (MIDI 第 10 通道) 使用的乐器ID。
+     */
+    public static final int DRUM_KIT = 128;
+
+    /**
+     * 把 GM 音色编号转换为模组的乐器ID，没有对应乐器时使用钢琴 (0)。
+     */
+    public static int gmInstrumentOrDefault(int program) {
+        return GM_INSTRUMENT_ID_TO_NAME.containsKey(program) ? program : 0;
+    }
+
+    // 当前使用的查找表，编译完成后整体替换
+    private static volatile Compiled current = Compiled.EMPTY;
+
+    /**
+     * 获取方块对应的乐器ID，没有对应乐器时返回0 (钢琴)。
+     */
+    public static int instrumentOf(Block block) {
+        return current.instruments.getInt(block);
+    }
+
+    /**
+     * 获取代表乐器的方块，用于在界面中切换乐器时放置到音符盒下方。
+     *
+     * @return 方块，没有方块对应该乐器时返回 null。
+     */
+    @Nullable
+    public static Block blockOf(int instrumentId) {
+        Block[] blocks = current.blocks;
+        return instrumentId >= 0 && instrumentId < blocks.length ? blocks[instrumentId] : null;
+    }
+
+    /**
+     * 获取查找表的版本号，每次重新编译后改变，用于使缓存的乐器ID失效。
+     */
+    public static int generation() {
+        return current.generation;
+    }
+
+    /**
+     * 把默认映射和数据包中的覆盖编译为新的查找表并替换当前的查找表。
+     * 必须在注册表冻结、标签绑定之后调用。
+     */
+    static void rebuild(InstrumentMapLoader.Overrides overrides) {
+        Reference2IntOpenHashMap<Block> instruments = new Reference2IntOpenHashMap<>();
+        instruments.defaultReturnValue(0);
+        Block[] blocks = new Block[INSTRUMENT_COUNT];
+        if (!overrides.replaceDefaults()) {
+            for (Map.Entry<String, Integer> entry : BLOCK_TO_GM_INSTRUMENT.entrySet()) {
+                Identifier id = Identifier.tryParse(entry.getKey());
+                if (id != null && Registries.BLOCK.containsId(id)) {
+                    put(instruments, blocks, Registries.BLOCK.get(id), entry.getValue());
+                }
+            }
+        }
+        for (InstrumentMapLoader.Entry entry : overrides.entries()) {
+            if (entry.tag()) {
+                // 标签中的方块只参与正向映射，代表方块优先使用单独列出的方块
+                TagKey<Block> tag = TagKey.of(RegistryKeys.BLOCK, entry.id());
+                for (RegistryEntry<Block> block : Registries.BLOCK.iterateEntries(tag)) {
+                    instruments.put(block.value(), entry.instrumentId());
+                }
+            } else if (Registries.BLOCK.containsId(entry.id())) {
+                put(instruments, blocks, Registries.BLOCK.get(entry.id()), entry.instrumentId());
+            }
+        }
+        // 代表方块必须仍然映射到该乐器，否则另选一个
+        for (int instrument = 0; instrument < INSTRUMENT_COUNT; instrument++) {
+            if (blocks[instrument] != null && instruments.getInt(blocks[instrument]) != instrument) {
+                blocks[instrument] = null;
+            }
+        }
+        for (Reference2IntMap.Entry<Block> entry : instruments.reference2IntEntrySet()) {
+            if (blocks[entry.getIntValue()] == null) {
+                blocks[entry.getIntValue()] = entry.getKey();
+            }
+        }
+        current = new Compiled(instruments, blocks, current.generation + 1);
+    }
+
+    private static void put(Reference2IntOpenHashMap<Block> instruments, Block[] blocks, Block block,
+            int instrumentId) {
+        instruments.put(block, instrumentId);
+        blocks[instrumentId] = block;
+    }
+
+    private static class Compiled {
+        private static final Compiled EMPTY = new Compiled(new Reference2IntOpenHashMap<>(),
+                new Block[INSTRUMENT_COUNT], 0);
+
+        private final Reference2IntOpenHashMap<Block> instruments;
+        private final Block[] blocks;
+        private final int generation;
+
+        private Compiled(Reference2IntOpenHashMap<Block> instruments, Block[] blocks, int generation) {
+            this.instruments = instruments;
+            this.blocks = blocks;
+            this.generation = generation;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.atemukesu.extendednoteblock.map;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.SimpleResourceReloadListener;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.profiler.Profiler;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 从数据包中读取乐器映射的覆盖。
+ *
+ * 文件位于 {@code data/<命名空间>/extendednoteblock/instruments/*.json}：
+ * <pre>
+ * {
+ *   "replace": false,
+ *   "instruments": {
+ *     "minecraft:stone": 0,
+ *     "#minecraft:wool": 25
+ *   }
+ * }
+ * </pre>
+ * 键是方块ID或以 {@code #} 开头的方块标签，值是乐器ID (0-128)。
+ * 文件按数据包的优先级依次应用，后面的条目覆盖前面的条目；{@code replace} 为 true 时丢弃之前的所有映射，包括内置的默认映射。
+ *
+ * 文件在重新加载的后台阶段解析。标签要在所有数据重新加载完成后才会绑定，
+ * 所以查找表在服务器启动和 {@code /reload} 结束时由 {@link InstrumentMap#rebuild} 编译，
+ * 编译完成后整体替换，不会阻塞重新加载之外的服务器逻辑。
+ */
+public class InstrumentMapLoader implements SimpleResourceReloadListener<InstrumentMapLoader.Overrides> {
+    private static final Identifier ID = new Identifier(ExtendedNoteBlock.MOD_ID, "instruments");
+    private static final String DIRECTORY = ExtendedNoteBlock.MOD_ID + "/instruments";
+
+    // 最近一次重新加载读取的覆盖，等待编译
+    private static volatile Overrides loaded = new Overrides(false, List.of());
+
+    public static void initialize() {
+        ResourceManagerHelper.get(ResourceType.SERVER_DATA).registerReloadListener(new InstrumentMapLoader());
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> InstrumentMap.rebuild(loaded));
+        ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resourceManager, success) -> {
+            if (success) {
+                InstrumentMap.rebuild(loaded);
+            }
+        });
+    }
+
+    @Override
+    public Identifier getFabricId() {
+        return ID;
+    }
+
+    @Override
+    public CompletableFuture<Overrides> load(ResourceManager manager, Profiler profiler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> read(manager), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Overrides data, ResourceManager manager, Profiler profiler,
+            Executor executor) {
+        return CompletableFuture.runAsync(() -> loaded = data, executor);
+    }
+
+    private static Overrides read(ResourceManager manager) {
+        boolean replaceDefaults = false;
+        List<Entry> entries = new ArrayList<>();
+        // 按文件ID排序，同一文件ID按数据包从低到高的优先级
+        Map<Identifier, List<Resource>> files = new TreeMap<>(
+                manager.findAllResources(DIRECTORY, id -> id.getPath().endsWith(".json")));
+        for (Map.Entry<Identifier, List<Resource>> file : files.entrySet()) {
+            for (Resource resource : file.getValue()) {
+                try (Reader reader = resource.getReader()) {
+                    JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
+                    if (json.has("replace") && json.get("replace").getAsBoolean()) {
+                        replaceDefaults = true;
+                        entries.clear();
+                    }
+                    if (json.has("instruments")) {
+                        readInstruments(file.getKey(), json.getAsJsonObject("instruments"), entries);
+                    }
+                } catch (Exception e) {
+                    ExtendedNoteBlock.LOGGER.error("Failed to read instrument map {} from {}", file.getKey(),
+                            resource.getResourcePackName(), e);
+                }
+            }
+        }
+        return new Overrides(replaceDefaults, List.copyOf(entries));
+    }
+
+    private static void readInstruments(Identifier file, JsonObject instruments, List<Entry> entries) {
+        for (Map.Entry<String, JsonElement> mapping : instruments.entrySet()) {
+            String key = mapping.getKey();
+            boolean tag = key.startsWith("#");
+            Identifier id = Identifier.tryParse(tag ? key.substring(1) : key);
+            int instrumentId = mapping.getValue().getAsInt();
+            if (id == null || instrumentId < 0 || instrumentId >= InstrumentMap.INSTRUMENT_COUNT) {
+                ExtendedNoteBlock.LOGGER.warn("Ignoring invalid instrument mapping {} -> {} in {}", key,
+                        mapping.getValue(), file);
+                continue;
+            }
+            entries.add(new Entry(id, tag, instrumentId));
+        }
+    }
+
+    /**
+     * 数据包中的一个映射条目。
+     *
+     * @param id  方块或方块标签的ID。
+     * @param tag 是否为方块标签。
+     */
+    public record Entry(Identifier id, boolean tag, int instrumentId) {
+    }
+
+    /**
+     * 一次重新加载读取的所有覆盖。
+     *
+     * @param replaceDefaults 是否丢弃内置的默认映射。
+     * @param entries         按应用顺序排列的条目。
+     */
+    public record Overrides(boolean replaceDefaults, List<Entry> entries) {
+    }
+}
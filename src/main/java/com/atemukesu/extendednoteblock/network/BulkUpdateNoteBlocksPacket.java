@@ -0,0 +1,335 @@
+package com.atemukesu.extendednoteblock.network;
+
+import com.atemukesu.extendednoteblock.block.ExtendedNoteBlockBlock;
+import com.atemukesu.extendednoteblock.block.entity.ExtendedNoteBlockEntity;
+import com.atemukesu.extendednoteblock.block.entity.NoteConfig;
+import com.atemukesu.extendednoteblock.map.InstrumentMap;
+import it.unimi.dsi.fastutil.longs.Long2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.minecraft.block.Block;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 负责在服务器端处理 {@link ModMessages#BULK_UPDATE_NOTE_BLOCKS_ID} 数据包：一次修改一组扩展音符盒。
+ *
+ * 选区是一个区域 (两个角) 或一组位置。位置列表按 {@link BlockPos#asLong()} 排序后发送，
+ * 第一个位置完整发送，之后每个位置只发送与前一个位置的坐标差 (zigzag 编码的 VarInt)，
+ * 相邻的音符盒每个只需要三个字节。编辑只包含要修改的属性，可以把音高作为移调的半音数。
+ *
+ * 服务器在一次遍历中应用编辑：区域按区块读取方块实体而不是逐个位置查询；
+ * 下方乐器方块的更换先不通知相邻方块，所有方块放置完成后收集去重的相邻位置，每个位置只通知一次；
+ * 方块实体的同步由 {@link com.atemukesu.extendednoteblock.block.entity.BlockEntitySyncQueue}
+ * 在刻结束时合并发送。修改乐器时，下方是另一个扩展音符盒 (叠放) 的音符盒被整个跳过，
+ * 不会覆盖下方的音符盒。批量修改只对创造模式的玩家开放。
+ */
+public class BulkUpdateNoteBlocksPacket {
+    /**
+     * 一个数据包最多修改的音符盒数。
+     */
+    public static final int MAX_BLOCKS = 32768;
+    /**
+     * 区域选区在 X 和 Z 方向上最多跨越的区块数。
+     */
+    public static final int MAX_REGION_CHUNKS = 16;
+
+    /**
+     * 编辑中要修改的内容，第 i 位 (i < {@link NoteConfig#PROPERTY_COUNT}) 对应 NoteConfig 中索引为 i 的属性。
+     */
+    public static final int FIELD_CHORD = 1 << NoteConfig.PROPERTY_COUNT;
+    public static final int FIELD_INSTRUMENT = FIELD_CHORD << 1;
+    private static final int FIELD_ALL = (FIELD_INSTRUMENT << 1) - 1;
+
+    private static final byte SELECTION_REGION = 0;
+    private static final byte SELECTION_LIST = 1;
+
+    /**
+     * 把一次批量修改写入数据包缓冲区，选区为一组位置。
+     */
+    public static void writePositions(PacketByteBuf buf, long[] positions, Edit edit) {
+        long[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        buf.writeByte(SELECTION_LIST);
+        buf.writeVarInt(sorted.length);
+        int prevX = 0;
+        int prevY = 0;
+        int prevZ = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            int x = BlockPos.unpackLongX(sorted[i]);
+            int y = BlockPos.unpackLongY(sorted[i]);
+            int z = BlockPos.unpackLongZ(sorted[i]);
+            if (i == 0) {
+                buf.writeLong(sorted[i]);
+            } else {
+                buf.writeVarInt(zigzag(x - prevX));
+                buf.writeVarInt(zigzag(y - prevY));
+                buf.writeVarInt(zigzag(z - prevZ));
+            }
+            prevX = x;
+            prevY = y;
+            prevZ = z;
+        }
+        edit.write(buf);
+    }
+
+    /**
+     * 把一次批量修改写入数据包缓冲区，选区为两个角之间的区域 (包含两端)。
+     */
+    public static void writeRegion(PacketByteBuf buf, BlockPos from, BlockPos to, Edit edit) {
+        buf.writeByte(SELECTION_REGION);
+        buf.writeBlockPos(from);
+        buf.writeBlockPos(to);
+        edit.write(buf);
+    }
+
+    /**
+     * C2S 数据包的接收逻辑。在网络线程上读取和检查数据，然后切换到主线程应用修改。
+     */
+    public static void receive(MinecraftServer server, ServerPlayerEntity player, ServerPlayNetworkHandler handler,
+            PacketByteBuf buf, PacketSender responseSender) {
+        byte selection = buf.readByte();
+        long[] positions;
+        BlockPos from = null;
+        BlockPos to = null;
+        if (selection == SELECTION_REGION) {
+            positions = null;
+            BlockPos a = buf.readBlockPos();
+            BlockPos b = buf.readBlockPos();
+            from = new BlockPos(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()),
+                    Math.min(a.getZ(), b.getZ()));
+            to = new BlockPos(Math.max(a.getX(), b.getX()), Math.max(a.getY(), b.getY()),
+                    Math.max(a.getZ(), b.getZ()));
+            if ((to.getX() >> 4) - (from.getX() >> 4) >= MAX_REGION_CHUNKS
+                    || (to.getZ() >> 4) - (from.getZ() >> 4) >= MAX_REGION_CHUNKS) {
+                return;
+            }
+        } else if (selection == SELECTION_LIST) {
+            int count = buf.readVarInt();
+            if (count < 0 || count > MAX_BLOCKS) {
+                return;
+            }
+            positions = new long[count];
+            int x = 0;
+            int y = 0;
+            int z = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    long first = buf.readLong();
+                    x = BlockPos.unpackLongX(first);
+                    y = BlockPos.unpackLongY(first);
+                    z = BlockPos.unpackLongZ(first);
+                } else {
+                    x += unzigzag(buf.readVarInt());
+                    y += unzigzag(buf.readVarInt());
+                    z += unzigzag(buf.readVarInt());
+                }
+                positions[i] = BlockPos.asLong(x, y, z);
+            }
+        } else {
+            return;
+        }
+        Edit edit = Edit.read(buf);
+        BlockPos regionFrom = from;
+        BlockPos regionTo = to;
+
+        server.execute(() -> {
+            if (!player.isCreative()) {
+                player.sendMessage(Text.translatable("gui.extendednoteblock.bulk_update.creative_only"), true);
+                return;
+            }
+            ServerWorld world = player.getServerWorld();
+            List<ExtendedNoteBlockEntity> targets = positions != null
+                    ? collectPositions(world, positions)
+                    : collectRegion(world, regionFrom, regionTo);
+            apply(player, world, targets, edit);
+        });
+    }
+
+    private static List<ExtendedNoteBlockEntity> collectPositions(ServerWorld world, long[] positions) {
+        List<ExtendedNoteBlockEntity> targets = new ArrayList<>(positions.length);
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (long packedPos : positions) {
+            pos.set(packedPos);
+            if (world.isChunkLoaded(ChunkSectionPos.getSectionCoord(pos.getX()),
+                    ChunkSectionPos.getSectionCoord(pos.getZ()))
+                    && world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity entity) {
+                targets.add(entity);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 按区块读取区域内的扩展音符盒，未加载的区块被跳过。
+     */
+    private static List<ExtendedNoteBlockEntity> collectRegion(ServerWorld world, BlockPos from, BlockPos to) {
+        List<ExtendedNoteBlockEntity> targets = new ArrayList<>();
+        for (int chunkX = from.getX() >> 4; chunkX <= to.getX() >> 4; chunkX++) {
+            for (int chunkZ = from.getZ() >> 4; chunkZ <= to.getZ() >> 4; chunkZ++) {
+                WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkX, chunkZ, false);
+                if (chunk == null) {
+                    continue;
+                }
+                for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+                    if (blockEntity instanceof ExtendedNoteBlockEntity entity && isWithin(entity.getPos(), from, to)
+                            && targets.size() < MAX_BLOCKS) {
+                        targets.add(entity);
+                    }
+                }
+            }
+        }
+        return targets;
+    }
+
+    private static boolean isWithin(BlockPos pos, BlockPos from, BlockPos to) {
+        return pos.getX() >= from.getX() && pos.getX() <= to.getX()
+                && pos.getY() >= from.getY() && pos.getY() <= to.getY()
+                && pos.getZ() >= from.getZ() && pos.getZ() <= to.getZ();
+    }
+
+    private static void apply(ServerPlayerEntity player, ServerWorld world, List<ExtendedNoteBlockEntity> targets,
+            Edit edit) {
+        Block instrumentBlock = (edit.fields() & FIELD_INSTRUMENT) != 0 ? InstrumentMap.blockOf(edit.instrumentId())
+                : null;
+        // 选区内所有音符盒的位置，更换乐器时不能覆盖其中任何一个
+        LongOpenHashSet targetPositions = new LongOpenHashSet(targets.size());
+        if (instrumentBlock != null) {
+            for (ExtendedNoteBlockEntity entity : targets) {
+                targetPositions.add(entity.getPos().asLong());
+            }
+        }
+        // 更换了下方方块的位置，全部放置完成后统一通知相邻方块
+        LongArrayList replaced = new LongArrayList();
+        int updated = 0;
+        int denied = 0;
+        for (ExtendedNoteBlockEntity entity : targets) {
+            if (entity.isRemoved() || !world.canPlayerModifyAt(player, entity.getPos())) {
+                denied++;
+                continue;
+            }
+            BlockPos belowPos = entity.getPos().down();
+            if (instrumentBlock != null && (targetPositions.contains(belowPos.asLong())
+                    || world.getBlockState(belowPos).getBlock() instanceof ExtendedNoteBlockBlock)) {
+                // 叠放的音符盒：下方是另一个音符盒，替换它会删除它的方块实体和设置，整个跳过
+                denied++;
+                continue;
+            }
+            edit.applyTo(entity);
+            updated++;
+            if (instrumentBlock != null && world.getBlockState(belowPos).getBlock() != instrumentBlock
+                    && world.canPlayerModifyAt(player, belowPos)
+                    && world.setBlockState(belowPos, instrumentBlock.getDefaultState(), Block.NOTIFY_LISTENERS)) {
+                replaced.add(belowPos.asLong());
+            }
+        }
+        // 相邻的替换位置共享许多相邻方块，每个相邻位置只通知一次，来源取第一个与之相邻的替换位置
+        Long2LongLinkedOpenHashMap neighbors = new Long2LongLinkedOpenHashMap();
+        for (int i = 0; i < replaced.size(); i++) {
+            long source = replaced.getLong(i);
+            for (Direction direction : Direction.values()) {
+                neighbors.putIfAbsent(BlockPos.offset(source, direction), source);
+            }
+        }
+        for (Long2LongMap.Entry entry : neighbors.long2LongEntrySet()) {
+            world.updateNeighbor(BlockPos.fromLong(entry.getLongKey()), instrumentBlock,
+                    BlockPos.fromLong(entry.getLongValue()));
+        }
+        player.sendMessage(Text.translatable("gui.extendednoteblock.bulk_update.done", updated, denied), true);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 要应用到每个音符盒的修改。
+     *
+     * @param fields       要修改的内容，见 {@link #FIELD_CHORD} 等常量。
+     * @param transpose    为 true 时音高是移调的半音数，和弦中的其他音符一起移动。
+     * @param values       六个数值属性的新值，按 NoteConfig 的索引排列，只使用 fields 中包含的属性。
+     * @param chord        和弦中的其他音符，只在 fields 包含 {@link #FIELD_CHORD} 时使用。
+     * @param instrumentId 下方方块对应的乐器ID，只在 fields 包含 {@link #FIELD_INSTRUMENT} 时使用。
+     */
+    public record Edit(int fields, boolean transpose, int[] values, int[] chord, int instrumentId) {
+        void write(PacketByteBuf buf) {
+            buf.writeVarInt(fields & FIELD_ALL);
+            buf.writeBoolean(transpose);
+            for (int i = 0; i < NoteConfig.PROPERTY_COUNT; i++) {
+                if ((fields & 1 << i) != 0) {
+                    buf.writeVarInt(values[i]);
+                }
+            }
+            if ((fields & FIELD_CHORD) != 0) {
+                buf.writeIntArray(chord);
+            }
+            if ((fields & FIELD_INSTRUMENT) != 0) {
+                buf.writeVarInt(instrumentId);
+            }
+        }
+
+        static Edit read(PacketByteBuf buf) {
+            int fields = buf.readVarInt() & FIELD_ALL;
+            boolean transpose = buf.readBoolean();
+            int[] values = new int[NoteConfig.PROPERTY_COUNT];
+            for (int i = 0; i < NoteConfig.PROPERTY_COUNT; i++) {
+                if ((fields & 1 << i) != 0) {
+                    values[i] = buf.readVarInt();
+                }
+            }
+            // 与单个音符盒的更新相同的范围，移调的半音数不限制
+            if (!transpose) {
+                values[NoteConfig.NOTE] = MathHelper.clamp(values[NoteConfig.NOTE], 0, 127);
+            }
+            values[NoteConfig.VELOCITY] = MathHelper.clamp(values[NoteConfig.VELOCITY], 0, 127);
+            values[NoteConfig.SUSTAIN] = MathHelper.clamp(values[NoteConfig.SUSTAIN], 0, 400);
+            values[NoteConfig.DELAY] = MathHelper.clamp(values[NoteConfig.DELAY], 0, 5000);
+            values[NoteConfig.FADE_IN] = MathHelper.clamp(values[NoteConfig.FADE_IN], 0, 400);
+            values[NoteConfig.FADE_OUT] = MathHelper.clamp(values[NoteConfig.FADE_OUT], 0, 400);
+            int[] chord = (fields & FIELD_CHORD) != 0
+                    ? buf.readIntArray(ExtendedNoteBlockEntity.MAX_CHORD_SIZE - 1)
+                    : new int[0];
+            int instrumentId = (fields & FIELD_INSTRUMENT) != 0 ? buf.readVarInt() : 0;
+            return new Edit(fields, transpose, values, chord, instrumentId);
+        }
+
+        void applyTo(ExtendedNoteBlockEntity entity) {
+            NoteConfig config = entity.getConfig();
+            int[] result = new int[NoteConfig.PROPERTY_COUNT];
+            for (int i = 0; i < NoteConfig.PROPERTY_COUNT; i++) {
+                result[i] = (fields & 1 << i) != 0 ? values[i] : config.get(i);
+            }
+            int offset = 0;
+            if (transpose && (fields & 1 << NoteConfig.NOTE) != 0) {
+                offset = values[NoteConfig.NOTE];
+                result[NoteConfig.NOTE] = config.note() + offset;
+            }
+            int[] newChord = (fields & FIELD_CHORD) != 0 ? chord : entity.getChord();
+            if (offset != 0) {
+                newChord = ExtendedNoteBlockEntity.transformChord(newChord, offset, 1.0);
+            }
+            entity.updateValues(result[NoteConfig.NOTE], result[NoteConfig.VELOCITY], result[NoteConfig.SUSTAIN],
+                    result[NoteConfig.DELAY], result[NoteConfig.FADE_IN], result[NoteConfig.FADE_OUT], newChord);
+        }
+    }
+}
@@ -1,14 +1,10 @@
 package com.atemukesu.extendednoteblock.network;
 
-import java.util.UUID;
-
 import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
-import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
-import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
+import com.atemukesu.extendednoteblock.sound.SoundEnvelope;
+import com.atemukesu.extendednoteblock.sound.SoundStats;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
-import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
 
@@ -24,9 +20,16 @@ public class ModMessages {
      */
     public static final Identifier UPDATE_NOTE_BLOCK_ID = new Identifier(ExtendedNoteBlock.MOD_ID, "update_note_block");
 
-    public static final Identifier START_SOUND_ID = new Identifier(ExtendedNoteBlock.MOD_ID, "start_sound");
-    public static final Identifier UPDATE_VOLUME_ID = new Identifier(ExtendedNoteBlock.MOD_ID, "update_volume");
-    public static final Identifier STOP_SOUND_ID = new Identifier(ExtendedNoteBlock.MOD_ID, "stop_sound");
+    /**
+     * C2S 数据包ID：一次修改一个选区内的所有扩展音符盒，格式见 {@link BulkUpdateNoteBlocksPacket}。
+     */
+    public static final Identifier BULK_UPDATE_NOTE_BLOCKS_ID = new Identifier(ExtendedNoteBlock.MOD_ID,
+            "bulk_update_note_blocks");
+
+    /**
+     * S2C 数据包ID：一个玩家在同一刻内收到的所有声音事件 (开始、音量关键帧、停止)，格式见 {@link SoundBundles}。
+     */
+    public static final Identifier SOUND_BUNDLE_ID = new Identifier(ExtendedNoteBlock.MOD_ID, "sound_bundle");
 
     /**
      * 在服务器端注册所有 C2S (客户端到服务器) 数据包的接收器。
@@ -34,36 +37,56 @@ public class ModMessages {
      */
     public static void registerC2SPackets() {
         ServerPlayNetworking.registerGlobalReceiver(UPDATE_NOTE_BLOCK_ID, UpdateNoteBlockPacket::receive);
+        ServerPlayNetworking.registerGlobalReceiver(BULK_UPDATE_NOTE_BLOCKS_ID, BulkUpdateNoteBlocksPacket::receive);
     }
 
-    public static void sendStartSoundToClients(ServerWorld world, BlockPos pos, UUID soundId, int instrumentId,
-            int note, int velocity, float initialVolume) {
-        PacketByteBuf buf = PacketByteBufs.create();
-        buf.writeBlockPos(pos);
-        buf.writeUuid(soundId);
-        buf.writeInt(instrumentId);
-        buf.writeInt(note);
-        buf.writeInt(velocity);
-        buf.writeFloat(initialVolume); // 初始音量
-        for (ServerPlayerEntity player : PlayerLookup.tracking(world, pos)) {
-            ServerPlayNetworking.send(player, START_SOUND_ID, buf);
+    /**
+     * 向指定玩家发送开始播放事件，事件在本刻结束时随声音事件包一起发送。
+     *
+     * @param stats     记录网络统计的声音引擎统计，即发出事件的世界的统计。
+     * @param startTick 开始播放时所处的包络刻，新触发的音符为 0，中途进入可听范围的玩家为已经经过的刻数。
+     */
+    public static void sendStartSoundToClients(SoundStats stats, Iterable<ServerPlayerEntity> players, BlockPos pos,
+            int soundId, int instrumentId, int note, int velocity, int sustainTicks, int fadeInTicks, int fadeOutTicks,
+            int startTick) {
+        for (ServerPlayerEntity player : players) {
+            SoundBundles.queueStart(stats, player, pos, soundId, instrumentId, note, velocity, sustainTicks,
+                    fadeInTicks, fadeOutTicks, startTick);
         }
     }
 
-    public static void sendUpdateVolumeToClients(ServerWorld world, BlockPos pos, UUID soundId, float volume) {
-        PacketByteBuf buf = PacketByteBufs.create();
-        buf.writeUuid(soundId);
-        buf.writeFloat(volume); // 使用 writeFloat
-        for (ServerPlayerEntity player : PlayerLookup.tracking(world, pos)) {
-            ServerPlayNetworking.send(player, UPDATE_VOLUME_ID, buf);
+    /**
+     * 向指定玩家发送一组同时开始、位于同一位置且共享乐器和包络的声音 (和弦)，作为一个事件发送。
+     *
+     * @param count 声音数，数组中只有前 count 个元素有效。
+     */
+    public static void sendChordStartToClients(SoundStats stats, Iterable<ServerPlayerEntity> players, BlockPos pos,
+            int[] soundIds, int[] notes, int[] velocities, int count, int instrumentId, int sustainTicks,
+            int fadeInTicks, int fadeOutTicks, int startTick) {
+        for (ServerPlayerEntity player : players) {
+            SoundBundles.queueChord(stats, player, pos, soundIds, notes, velocities, count, instrumentId,
+                    sustainTicks, fadeInTicks, fadeOutTicks, startTick);
+        }
+    }
+
+    /**
+     * 向指定玩家发送音量关键帧，客户端在 rampTicks 内线性插值到目标音量。
+     *
+     * @param quantizedVolume 量化后的目标音量 (见 {@link SoundEnvelope#quantizeVolume(float)})，
+     *                        为 0 时客户端会在斜坡结束后停止该声音。
+     * @param rampTicks       过渡到目标音量所用的刻数。
+     */
+    public static void sendUpdateVolumeToClients(SoundStats stats, Iterable<ServerPlayerEntity> players, BlockPos pos,
+            int soundId, int quantizedVolume, int rampTicks) {
+        for (ServerPlayerEntity player : players) {
+            SoundBundles.queueVolume(stats, player, pos, soundId, quantizedVolume, rampTicks);
         }
     }
 
-    public static void sendStopSoundToClients(ServerWorld world, BlockPos pos, UUID soundId) {
-        PacketByteBuf buf = PacketByteBufs.create();
-        buf.writeUuid(soundId);
-        for (ServerPlayerEntity player : PlayerLookup.tracking(world, pos)) {
-            ServerPlayNetworking.send(player, STOP_SOUND_ID, buf);
+    public static void sendStopSoundToClients(SoundStats stats, Iterable<ServerPlayerEntity> players, BlockPos pos,
+            int soundId) {
+        for (ServerPlayerEntity player : players) {
+            SoundBundles.queueStop(stats, player, pos, soundId);
         }
     }
-}
\ No newline at end of file
+}
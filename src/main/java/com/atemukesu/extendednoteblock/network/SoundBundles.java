@@ -0,0 +1,241 @@
+package com.atemukesu.extendednoteblock.network;
+
+import com.atemukesu.extendednoteblock.sound.SoundStats;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 把一个玩家在同一刻内收到的所有声音事件合并为一个数据包。
+ *
+ * 事件先按玩家追加到各自的缓冲区，在服务器刻结束时每个玩家只发送一个 {@link ModMessages#SOUND_BUNDLE_ID} 数据包。
+ * 数据包格式：
+ * <pre>
+ * VarInt 事件数
+ * Long   锚点位置 (第一个事件的 BlockPos)
+ * 事件 * N:
+ *   Byte   类型 (START / VOLUME / STOP / CHORD)
+ *   VarInt 声音句柄
+ *   START:  3 个 ZigZag VarInt 位置增量 (相对锚点), VarInt 乐器, Byte 音符, Byte 力度,
+ *           VarInt 总时长, VarInt 淡入, VarInt 淡出, VarInt 起始刻
+ *   VOLUME: Byte 量化音量, VarInt 斜坡刻数
+ *   STOP:   无
+ *   CHORD:  与 START 相同，随后是 VarInt 其余声音数 M,
+ *           以及 M 组 (VarInt 声音句柄, Byte 音符, Byte 力度)
+ * </pre>
+ *
+ * CHORD 事件表示同一位置、同一乐器和包络的多个声音同时开始，共享的字段只写一次，
+ * 接收方把它展开为多个开始事件。
+ *
+ * 每种事件的数量和字节数记录在发出事件的世界的声音引擎统计
+ * ({@link com.atemukesu.extendednoteblock.sound.WorldSoundEngine#getStats()}) 中。
+ *
+ * 此类只能在服务器主线程上使用。
+ */
+public class SoundBundles {
+    public static final byte EVENT_START = 0;
+    public static final byte EVENT_VOLUME = 1;
+    public static final byte EVENT_STOP = 2;
+    public static final byte EVENT_CHORD = 3;
+
+    private static final Map<ServerPlayerEntity, Bundle> pending = new IdentityHashMap<>();
+
+    /**
+     * 注册刻结束时的发送逻辑以及玩家断开连接时的清理。
+     */
+    public static void initialize() {
+        ServerTickEvents.END_SERVER_TICK.register(server -> flush());
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> pending.remove(handler.player));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> pending.clear());
+    }
+
+    static void queueStart(SoundStats stats, ServerPlayerEntity player, BlockPos pos, int soundId, int instrumentId,
+            int note, int velocity, int sustainTicks, int fadeInTicks, int fadeOutTicks, int startTick) {
+        Bundle bundle = begin(stats, player, pos, EVENT_START, soundId);
+        writeStartBody(bundle, pos, instrumentId, note, velocity, sustainTicks, fadeInTicks, fadeOutTicks,
+                startTick);
+        stats.increment(SoundStats.START_EVENTS);
+        stats.add(SoundStats.START_BYTES, bundle.body.writerIndex() - bundle.eventStart);
+    }
+
+    /**
+     * @param soundIds   每个声音的句柄。
+     * @param notes      每个声音的音符。
+     * @param velocities 每个声音的力度。
+     * @param count      声音数，至少为 1。
+     */
+    static void queueChord(SoundStats stats, ServerPlayerEntity player, BlockPos pos, int[] soundIds, int[] notes,
+            int[] velocities, int count, int instrumentId, int sustainTicks, int fadeInTicks, int fadeOutTicks,
+            int startTick) {
+        if (count == 1) {
+            queueStart(stats, player, pos, soundIds[0], instrumentId, notes[0], velocities[0], sustainTicks,
+                    fadeInTicks, fadeOutTicks, startTick);
+            return;
+        }
+        Bundle bundle = begin(stats, player, pos, EVENT_CHORD, soundIds[0]);
+        PacketByteBuf buf = bundle.body;
+        writeStartBody(bundle, pos, instrumentId, notes[0], velocities[0], sustainTicks, fadeInTicks, fadeOutTicks,
+                startTick);
+        buf.writeVarInt(count - 1);
+        for (int i = 1; i < count; i++) {
+            buf.writeVarInt(soundIds[i]);
+            buf.writeByte(notes[i]);
+            buf.writeByte(velocities[i]);
+        }
+        stats.increment(SoundStats.START_EVENTS);
+        stats.add(SoundStats.START_BYTES, buf.writerIndex() - bundle.eventStart);
+    }
+
+    private static void writeStartBody(Bundle bundle, BlockPos pos, int instrumentId, int note, int velocity,
+            int sustainTicks, int fadeInTicks, int fadeOutTicks, int startTick) {
+        PacketByteBuf buf = bundle.body;
+        buf.writeVarInt(zigZag(pos.getX() - BlockPos.unpackLongX(bundle.anchor)));
+        buf.writeVarInt(zigZag(pos.getY() - BlockPos.unpackLongY(bundle.anchor)));
+        buf.writeVarInt(zigZag(pos.getZ() - BlockPos.unpackLongZ(bundle.anchor)));
+        buf.writeVarInt(instrumentId);
+        buf.writeByte(note);
+        buf.writeByte(velocity);
+        buf.writeVarInt(sustainTicks);
+        buf.writeVarInt(fadeInTicks);
+        buf.writeVarInt(fadeOutTicks);
+        buf.writeVarInt(startTick);
+    }
+
+    static void queueVolume(SoundStats stats, ServerPlayerEntity player, BlockPos pos, int soundId,
+            int quantizedVolume, int rampTicks) {
+        Bundle bundle = begin(stats, player, pos, EVENT_VOLUME, soundId);
+        bundle.body.writeByte(quantizedVolume);
+        bundle.body.writeVarInt(rampTicks);
+        stats.increment(SoundStats.VOLUME_EVENTS);
+        stats.add(SoundStats.VOLUME_BYTES, bundle.body.writerIndex() - bundle.eventStart);
+    }
+
+    static void queueStop(SoundStats stats, ServerPlayerEntity player, BlockPos pos, int soundId) {
+        Bundle bundle = begin(stats, player, pos, EVENT_STOP, soundId);
+        stats.increment(SoundStats.STOP_EVENTS);
+        stats.add(SoundStats.STOP_BYTES, bundle.body.writerIndex() - bundle.eventStart);
+    }
+
+    private static Bundle begin(SoundStats stats, ServerPlayerEntity player, BlockPos pos, byte type,
+            int soundId) {
+        Bundle bundle = pending.get(player);
+        if (bundle == null) {
+            bundle = new Bundle(pos.asLong(), stats);
+            pending.put(player, bundle);
+        }
+        bundle.count++;
+        bundle.eventStart = bundle.body.writerIndex();
+        bundle.body.writeByte(type);
+        bundle.body.writeVarInt(soundId);
+        return bundle;
+    }
+
+    /**
+     * 把所有玩家本刻累积的事件各自作为一个数据包发送出去。
+     */
+    private static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<ServerPlayerEntity, Bundle> entry : pending.entrySet()) {
+            Bundle bundle = entry.getValue();
+            PacketByteBuf buf = PacketByteBufs.create();
+            buf.writeVarInt(bundle.count);
+            buf.writeLong(bundle.anchor);
+            buf.writeBytes(bundle.body);
+            bundle.stats.increment(SoundStats.BUNDLE_PACKETS);
+            bundle.stats.add(SoundStats.BUNDLE_BYTES, buf.readableBytes());
+            ServerPlayNetworking.send(entry.getKey(), ModMessages.SOUND_BUNDLE_ID, buf);
+        }
+        pending.clear();
+    }
+
+    /**
+     * 解码一个声音事件包，按顺序把事件交给处理器。
+     */
+    public static void read(PacketByteBuf buf, Handler handler) {
+        int count = buf.readVarInt();
+        long anchor = buf.readLong();
+        int anchorX = BlockPos.unpackLongX(anchor);
+        int anchorY = BlockPos.unpackLongY(anchor);
+        int anchorZ = BlockPos.unpackLongZ(anchor);
+        for (int i = 0; i < count; i++) {
+            byte type = buf.readByte();
+            int soundId = buf.readVarInt();
+            switch (type) {
+                case EVENT_START, EVENT_CHORD -> {
+                    BlockPos pos = new BlockPos(anchorX + unZigZag(buf.readVarInt()),
+                            anchorY + unZigZag(buf.readVarInt()), anchorZ + unZigZag(buf.readVarInt()));
+                    int instrumentId = buf.readVarInt();
+                    int note = buf.readUnsignedByte();
+                    int velocity = buf.readUnsignedByte();
+                    int sustainTicks = buf.readVarInt();
+                    int fadeInTicks = buf.readVarInt();
+                    int fadeOutTicks = buf.readVarInt();
+                    int startTick = buf.readVarInt();
+                    handler.onStart(pos, soundId, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                            fadeOutTicks, startTick);
+                    if (type == EVENT_CHORD) {
+                        int others = buf.readVarInt();
+                        for (int j = 0; j < others; j++) {
+                            int otherId = buf.readVarInt();
+                            int otherNote = buf.readUnsignedByte();
+                            int otherVelocity = buf.readUnsignedByte();
+                            handler.onStart(pos, otherId, instrumentId, otherNote, otherVelocity, sustainTicks,
+                                    fadeInTicks, fadeOutTicks, startTick);
+                        }
+                    }
+                }
+                case EVENT_VOLUME -> {
+                    int quantizedVolume = buf.readUnsignedByte();
+                    int rampTicks = buf.readVarInt();
+                    handler.onVolume(soundId, quantizedVolume, rampTicks);
+                }
+                case EVENT_STOP -> handler.onStop(soundId);
+                default -> throw new IllegalArgumentException("Unknown sound bundle event type: " + type);
+            }
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 声音事件包的接收方。
+     */
+    public interface Handler {
+        void onStart(BlockPos pos, int soundId, int instrumentId, int note, int velocity, int sustainTicks,
+                int fadeInTicks, int fadeOutTicks, int startTick);
+
+        void onVolume(int soundId, int quantizedVolume, int rampTicks);
+
+        void onStop(int soundId);
+    }
+
+    private static class Bundle {
+        private final long anchor;
+        // 数据包计入第一个事件所属世界的统计，玩家通常在一刻内只收到一个世界的事件
+        private final SoundStats stats;
+        private final PacketByteBuf body = PacketByteBufs.create();
+        private int count;
+        private int eventStart;
+
+        private Bundle(long anchor, SoundStats stats) {
+            this.anchor = anchor;
+            this.stats = stats;
+        }
+    }
+}
@@ -5,12 +5,10 @@ import com.atemukesu.extendednoteblock.map.InstrumentMap;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
 import net.minecraft.block.Block;
 import net.minecraft.network.PacketByteBuf;
-import net.minecraft.registry.Registries;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayNetworkHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
-import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
@@ -46,6 +44,8 @@ public class UpdateNoteBlockPacket {
         int fadeIn = MathHelper.clamp(buf.readInt(), 0, 400);
         int fadeOut = MathHelper.clamp(buf.readInt(), 0, 400);
         int instrumentId = buf.readInt();
+        // 和弦中的其他音符，由方块实体去重并限制范围
+        int[] chord = buf.readIntArray(ExtendedNoteBlockEntity.MAX_CHORD_SIZE - 1);
 
         // 将逻辑切换到主线程执行
         server.execute(() -> {
@@ -54,7 +54,7 @@ public class UpdateNoteBlockPacket {
             // 验证目标位置是否存在正确的方块实体
             if (world.getBlockEntity(pos) instanceof ExtendedNoteBlockEntity entity) {
                 // 更新方块实体的数值
-                entity.updateValues(note, velocity, sustain, delay, fadeIn, fadeOut);
+                entity.updateValues(note, velocity, sustain, delay, fadeIn, fadeOut, chord);
 
                 // 根据选择的乐器ID，尝试更新音符盒下方的方块
                 updateInstrumentBlock(player, world, pos, instrumentId);
@@ -76,16 +76,15 @@ public class UpdateNoteBlockPacket {
     private static void updateInstrumentBlock(ServerPlayerEntity player, World world, BlockPos noteBlockPos,
             int instrumentId) {
         BlockPos belowPos = noteBlockPos.down();
-        // 从映射中查找乐器ID对应的方块ID
-        String targetBlockId = InstrumentMap.GM_INSTRUMENT_TO_BLOCK.get(instrumentId);
+        // 从映射中查找乐器ID对应的方块
+        Block targetBlock = InstrumentMap.blockOf(instrumentId);
 
-        if (targetBlockId != null) {
+        if (targetBlock != null) {
             try {
-                Block targetBlock = Registries.BLOCK.get(new Identifier(targetBlockId));
                 Block currentBlockBelow = world.getBlockState(belowPos).getBlock();
 
                 // 只有在目标方块与当前方块不同时才进行更换
-                if (targetBlock != null && targetBlock != currentBlockBelow) {
+                if (targetBlock != currentBlockBelow) {
                     // 检查玩家是否有权限修改该位置
                     if (world.canPlayerModifyAt(player, belowPos)) {
                         world.setBlockState(belowPos, targetBlock.getDefaultState(), 3); // 3 = NOTIFY_LISTENERS |
@@ -16,6 +16,8 @@ public class ExtendedNoteBlockScreenHandler extends ScreenHandler {
     public final ExtendedNoteBlockEntity blockEntity;
     private final PropertyDelegate propertyDelegate;
     public final BlockPos blockPos;
+    // 和弦中的其他音符，只在打开界面时同步一次
+    private int[] chord = new int[0];
 
     public ExtendedNoteBlockScreenHandler(int syncId, PlayerInventory inventory, ExtendedNoteBlockEntity entity,
             PropertyDelegate delegate) {
@@ -37,6 +39,7 @@ public class ExtendedNoteBlockScreenHandler extends ScreenHandler {
         this.propertyDelegate.set(4, buf.readInt()); // fadeInTime
         this.propertyDelegate.set(5, buf.readInt()); // fadeOutTime
         this.propertyDelegate.set(6, buf.readInt()); // instrumentId
+        this.chord = buf.readIntArray(ExtendedNoteBlockEntity.MAX_CHORD_SIZE - 1);
     }
 
     public int getNote() {
@@ -67,6 +70,13 @@ public class ExtendedNoteBlockScreenHandler extends ScreenHandler {
         return this.propertyDelegate.get(6);
     }
 
+    /**
+     * 获取和弦中除主音符以外的其他音符，每个元素为 {@code 音符 << 8 | 力度}。
+     */
+    public int[] getChord() {
+        return this.chord;
+    }
+
     @Override
     public ItemStack quickMove(PlayerEntity player, int slot) {
         return ItemStack.EMPTY;
@@ -0,0 +1,178 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 导入后缓存在磁盘上的歌曲，以歌曲文件内容的哈希命名。
+ *
+ * 缓存文件格式 (大端序)：
+ * <pre>
+ * Int 魔数 "ENBS"
+ * Int 版本
+ * Int 事件数
+ * Int 最后一个事件的刻数
+ * Int * 3 * 事件数：按刻数排好序的事件，编码见 {@link NoteEvents}
+ * </pre>
+ *
+ * 事件不会整体读入内存，而是在播放时按需分段读取 (见 {@link SongPlayback})。
+ * 文件在第一次读取时打开并保持打开，读取缓冲区也会复用，播放中的歌曲每读取一段不需要重新打开文件或分配内存。
+ */
+public class CachedSong implements EventSource {
+    private static final int MAGIC = 0x454E4253;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int EVENT_BYTES = NoteEvents.STRIDE * Integer.BYTES;
+
+    private final String hash;
+    private final Path file;
+    private final int eventCount;
+    private final int lengthTicks;
+    @Nullable
+    private FileChannel channel;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(0);
+
+    private CachedSong(String hash, Path file, int eventCount, int lengthTicks) {
+        this.hash = hash;
+        this.file = file;
+        this.eventCount = eventCount;
+        this.lengthTicks = lengthTicks;
+    }
+
+    /**
+     * 打开一个缓存文件，只读取文件头。
+     *
+     * @return 缓存的歌曲，文件不存在或格式不符时返回 null。
+     */
+    @Nullable
+    static CachedSong open(String hash, Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (!readFully(channel, header, 0L)) {
+                return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            int eventCount = header.getInt();
+            int lengthTicks = header.getInt();
+            if (eventCount < 0 || channel.size() != HEADER_BYTES + (long) eventCount * EVENT_BYTES) {
+                return null;
+            }
+            return new CachedSong(hash, file, eventCount, lengthTicks);
+        } catch (IOException e) {
+            ExtendedNoteBlock.LOGGER.warn("Failed to open song cache {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 把排好序的事件写入缓存文件。先写入同一文件夹中名称唯一的临时文件再原子地替换，
+     * 避免留下不完整的缓存，同时写入同一缓存的多个线程也不会互相覆盖临时文件。
+     */
+    static void write(Path file, int[] sortedEvents) throws IOException {
+        int eventCount = sortedEvents.length / NoteEvents.STRIDE;
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(eventCount);
+                out.writeInt(eventCount == 0 ? 0 : sortedEvents[(eventCount - 1) * NoteEvents.STRIDE]);
+                for (int i = 0; i < eventCount * NoteEvents.STRIDE; i++) {
+                    out.writeInt(sortedEvents[i]);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public int eventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public int lengthTicks() {
+        return lengthTicks;
+    }
+
+    @Override
+    public synchronized int read(int firstEvent, int[] dest, int maxEvents) {
+        int count = Math.max(0, Math.min(Math.min(maxEvents, eventCount - firstEvent),
+                dest.length / NoteEvents.STRIDE));
+        if (count == 0) {
+            return 0;
+        }
+        if (readBuffer.capacity() < count * EVENT_BYTES) {
+            readBuffer = ByteBuffer.allocate(count * EVENT_BYTES);
+        }
+        ByteBuffer buffer = readBuffer;
+        buffer.clear().limit(count * EVENT_BYTES);
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            if (!readFully(channel, buffer, HEADER_BYTES + (long) firstEvent * EVENT_BYTES)) {
+                return 0;
+            }
+        } catch (IOException e) {
+            ExtendedNoteBlock.LOGGER.warn("Failed to read song cache {}", file, e);
+            close();
+            return 0;
+        }
+        buffer.flip();
+        buffer.asIntBuffer().get(dest, 0, count * NoteEvents.STRIDE);
+        return count;
+    }
+
+    /**
+     * 关闭缓存文件。之后再读取时会重新打开。
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ExtendedNoteBlock.LOGGER.warn("Failed to close song cache {}", file, e);
+        }
+        channel = null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
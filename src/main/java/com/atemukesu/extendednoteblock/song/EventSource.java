@@ -0,0 +1,54 @@
+package com.atemukesu.extendednoteblock.song;
+
+/**
+ * 按刻数排好序的音符事件序列 (编码见 {@link NoteEvents})，可以分段读取，
+ * 播放时不需要把整首歌曲展开在内存中。
+ */
+public interface EventSource {
+    EventSource EMPTY = of(new int[0]);
+
+    /**
+     * 获取事件总数。
+     */
+    int eventCount();
+
+    /**
+     * 获取最后一个事件开始的刻数。
+     */
+    int lengthTicks();
+
+    /**
+     * 从指定下标开始读取事件。
+     *
+     * @param firstEvent 第一个要读取的事件下标。
+     * @param dest       目标数组，每个事件 {@link NoteEvents#STRIDE} 个整数。
+     * @param maxEvents  最多读取的事件数。
+     * @return 实际读取的事件数，出错或已到末尾时为 0。
+     */
+    int read(int firstEvent, int[] dest, int maxEvents);
+
+    /**
+     * 包装一个已经在内存中、排好序的事件数组。
+     */
+    static EventSource of(int[] events) {
+        return new EventSource() {
+            @Override
+            public int eventCount() {
+                return events.length / NoteEvents.STRIDE;
+            }
+
+            @Override
+            public int lengthTicks() {
+                int count = eventCount();
+                return count == 0 ? 0 : events[(count - 1) * NoteEvents.STRIDE];
+            }
+
+            @Override
+            public int read(int firstEvent, int[] dest, int maxEvents) {
+                int count = Math.max(0, Math.min(maxEvents, eventCount() - firstEvent));
+                System.arraycopy(events, firstEvent * NoteEvents.STRIDE, dest, 0, count * NoteEvents.STRIDE);
+                return count;
+            }
+        };
+    }
+}
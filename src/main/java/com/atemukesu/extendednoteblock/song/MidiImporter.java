@@ -0,0 +1,204 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.map.InstrumentMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 标准 MIDI 文件 (.mid) 的导入器。
+ *
+ * MIDI 刻按文件中的速度变化换算为微秒，再四舍五入到游戏刻 (50 毫秒)。
+ * 音色变化按 GM 编号映射为乐器 (见 {@link InstrumentMap#gmInstrumentOrDefault(int)})，
+ * 第 10 通道映射为打击乐器组 {@link InstrumentMap#DRUM_KIT}。
+ */
+public class MidiImporter implements SongImporter {
+    private static final double MICROS_PER_GAME_TICK = 50_000.0;
+    private static final int DEFAULT_MICROS_PER_QUARTER = 500_000;
+    private static final int TEMPO_META_TYPE = 0x51;
+    private static final int CHANNELS = 16;
+    private static final int DRUM_CHANNEL = 9;
+    // 足够长的音符在结束前淡出的刻数，避免采样被突然截断
+    private static final int RELEASE_TICKS = 2;
+
+    @Override
+    public void read(InputStream input, EventSink sink) throws IOException {
+        Sequence sequence;
+        try {
+            sequence = MidiSystem.getSequence(input);
+        } catch (InvalidMidiDataException e) {
+            throw new IOException("Invalid MIDI file", e);
+        }
+        Track[] tracks = sequence.getTracks();
+        TempoMap tempo = TempoMap.of(sequence, tracks);
+        long[][] programs = collectProgramChanges(tracks);
+
+        long[] noteOnTicks = new long[CHANNELS * 128];
+        int[] noteOnVelocities = new int[CHANNELS * 128];
+        for (Track track : tracks) {
+            Arrays.fill(noteOnTicks, -1L);
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (!(event.getMessage() instanceof ShortMessage message)) {
+                    continue;
+                }
+                int command = message.getCommand();
+                if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) {
+                    continue;
+                }
+                int channel = message.getChannel();
+                int note = message.getData1();
+                int velocity = message.getData2();
+                int key = channel * 128 + note;
+                long tick = event.getTick();
+                // 同一个音符在结束前再次按下时，先结束之前的音符
+                if (noteOnTicks[key] >= 0) {
+                    emit(sink, tempo, programs, channel, note, noteOnVelocities[key], noteOnTicks[key], tick);
+                    noteOnTicks[key] = -1L;
+                }
+                if (command == ShortMessage.NOTE_ON && velocity > 0) {
+                    noteOnTicks[key] = tick;
+                    noteOnVelocities[key] = velocity;
+                }
+            }
+            // 轨道结束时仍未松开的音符在轨道末尾结束
+            for (int key = 0; key < noteOnTicks.length; key++) {
+                if (noteOnTicks[key] >= 0) {
+                    emit(sink, tempo, programs, key / 128, key % 128, noteOnVelocities[key], noteOnTicks[key],
+                            track.ticks());
+                }
+            }
+        }
+    }
+
+    private static void emit(EventSink sink, TempoMap tempo, long[][] programs, int channel, int note,
+            int velocity, long startMidiTick, long endMidiTick) {
+        int startTick = tempo.toGameTick(startMidiTick);
+        int sustain = Math.max(1, tempo.toGameTick(endMidiTick) - startTick);
+        int instrumentId = channel == DRUM_CHANNEL
+                ? InstrumentMap.DRUM_KIT
+                : InstrumentMap.gmInstrumentOrDefault(programAt(programs[channel], startMidiTick));
+        int fadeOut = sustain > RELEASE_TICKS * 4 ? RELEASE_TICKS : 0;
+        sink.add(startTick, NoteEvents.packVoice(instrumentId, note, velocity),
+                NoteEvents.packEnvelope(sustain, 0, fadeOut));
+    }
+
+    /**
+     * 收集每个通道的音色变化，每个元素为 {@code MIDI 刻 << 8 | 音色}，按刻数排序。
+     */
+    private static long[][] collectProgramChanges(Track[] tracks) {
+        long[][] programs = new long[CHANNELS][];
+        int[] counts = new int[CHANNELS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            programs[channel] = new long[4];
+        }
+        for (Track track : tracks) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (event.getMessage() instanceof ShortMessage message
+                        && message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                    int channel = message.getChannel();
+                    if (counts[channel] == programs[channel].length) {
+                        programs[channel] = Arrays.copyOf(programs[channel], counts[channel] * 2);
+                    }
+                    programs[channel][counts[channel]++] = event.getTick() << 8 | message.getData1();
+                }
+            }
+        }
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            programs[channel] = Arrays.copyOf(programs[channel], counts[channel]);
+            Arrays.sort(programs[channel]);
+        }
+        return programs;
+    }
+
+    /**
+     * 获取通道在指定 MIDI 刻生效的音色，同一刻的音色变化先于音符生效。
+     */
+    private static int programAt(long[] changes, long midiTick) {
+        int index = Arrays.binarySearch(changes, midiTick << 8 | 0xFF);
+        int last = index >= 0 ? index : -index - 2;
+        return last >= 0 ? (int) (changes[last] & 0xFF) : 0;
+    }
+
+    /**
+     * MIDI 刻到游戏刻的换算，考虑所有轨道中的速度变化。
+     */
+    private static class TempoMap {
+        private final long[] segmentTicks;
+        private final double[] segmentMicros;
+        private final double[] segmentMicrosPerTick;
+
+        private TempoMap(long[] segmentTicks, double[] segmentMicros, double[] segmentMicrosPerTick) {
+            this.segmentTicks = segmentTicks;
+            this.segmentMicros = segmentMicros;
+            this.segmentMicrosPerTick = segmentMicrosPerTick;
+        }
+
+        static TempoMap of(Sequence sequence, Track[] tracks) {
+            int resolution = Math.max(1, sequence.getResolution());
+            if (sequence.getDivisionType() != Sequence.PPQ) {
+                // SMPTE 时间码：每个 MIDI 刻的时长固定，与速度无关
+                double microsPerTick = 1_000_000.0 / (sequence.getDivisionType() * resolution);
+                return new TempoMap(new long[] { 0L }, new double[] { 0.0 }, new double[] { microsPerTick });
+            }
+            // 每个元素为 MIDI 刻 << 24 | 每四分音符的微秒数
+            long[] changes = new long[8];
+            int count = 0;
+            for (Track track : tracks) {
+                for (int i = 0; i < track.size(); i++) {
+                    MidiEvent event = track.get(i);
+                    MidiMessage message = event.getMessage();
+                    if (message instanceof MetaMessage meta && meta.getType() == TEMPO_META_TYPE
+                            && meta.getData().length >= 3) {
+                        byte[] data = meta.getData();
+                        int microsPerQuarter = (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+                        if (count == changes.length) {
+                            changes = Arrays.copyOf(changes, count * 2);
+                        }
+                        changes[count++] = event.getTick() << 24 | microsPerQuarter;
+                    }
+                }
+            }
+            Arrays.sort(changes, 0, count);
+
+            long[] ticks = new long[count + 1];
+            double[] micros = new double[count + 1];
+            double[] microsPerTick = new double[count + 1];
+            microsPerTick[0] = DEFAULT_MICROS_PER_QUARTER / (double) resolution;
+            int segments = 1;
+            for (int i = 0; i < count; i++) {
+                long tick = changes[i] >>> 24;
+                double rate = (changes[i] & 0xFFFFFF) / (double) resolution;
+                int last = segments - 1;
+                if (tick == ticks[last]) {
+                    // 同一刻只保留一个速度
+                    microsPerTick[last] = rate;
+                    continue;
+                }
+                ticks[segments] = tick;
+                micros[segments] = micros[last] + (tick - ticks[last]) * microsPerTick[last];
+                microsPerTick[segments] = rate;
+                segments++;
+            }
+            return new TempoMap(Arrays.copyOf(ticks, segments), Arrays.copyOf(micros, segments),
+                    Arrays.copyOf(microsPerTick, segments));
+        }
+
+        int toGameTick(long midiTick) {
+            int index = Arrays.binarySearch(segmentTicks, midiTick);
+            int segment = index >= 0 ? index : -index - 2;
+            double micros = segmentMicros[segment] + (midiTick - segmentTicks[segment]) * segmentMicrosPerTick[segment];
+            return (int) Math.min(Integer.MAX_VALUE, Math.round(micros / MICROS_PER_GAME_TICK));
+        }
+    }
+}
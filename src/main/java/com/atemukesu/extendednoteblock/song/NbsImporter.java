@@ -0,0 +1,209 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.map.InstrumentMap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Note Block Studio 歌曲文件 (.nbs) 的导入器，支持旧格式和第 1 到 5 版的新格式。
+ *
+ * 文件按小端序逐字节读取，不为每个音符创建对象。因为图层音量保存在音符之后，
+ * 音符先以 {@value #NOTE_STRIDE} 个整数一组暂存在一个数组中，读完图层后再换算力度并交给 sink。
+ *
+ * NBS 的音高 0 为 A0，即 MIDI 音符 21。原版乐器本身有八度偏移 (例如低音提琴低两个八度)，
+ * 转换时一并计入，使导入后的音高与 Note Block Studio 中听到的一致。
+ * 音符块的声音没有时长，导入后使用固定的 {@value #NOTE_SUSTAIN_TICKS} 刻并在末尾淡出。
+ * 声像和自定义乐器不受支持，自定义乐器按钢琴播放。
+ */
+public class NbsImporter implements SongImporter {
+    private static final int MIDI_NOTE_OF_KEY_0 = 21;
+    private static final int CLASSIC_VANILLA_INSTRUMENTS = 10;
+    private static final int DEFAULT_TEMPO = 1000;
+    private static final int MAX_VOLUME = 100;
+    private static final int NOTE_SUSTAIN_TICKS = 40;
+    private static final int NOTE_FADE_OUT_TICKS = 10;
+    // 暂存的音符：NBS 刻、图层、乐器 << 8 | 音高、力度 << 16 | 微调 (音分)
+    private static final int NOTE_STRIDE = 4;
+
+    // NBS 原版乐器 -> GM 音色，打击乐器为 -1，使用 DRUM_NOTES 中的鼓音符
+    private static final int[] GM_PROGRAMS = {
+            46, // 竖琴
+            32, // 低音提琴
+            -1, // 底鼓
+            -1, // 小军鼓
+            -1, // 击鼓沿
+            24, // 吉他
+            73, // 长笛
+            14, // 钟
+            9, // 风铃
+            13, // 木琴
+            11, // 铁木琴
+            -1, // 牛铃
+            109, // 迪吉里杜管
+            80, // 比特
+            105, // 班卓琴
+            4, // 电钢琴
+    };
+    private static final int[] DRUM_NOTES = { 0, 0, 36, 38, 42, 0, 0, 0, 0, 0, 0, 56, 0, 0, 0, 0 };
+    // 原版乐器相对竖琴的八度偏移 (半音)
+    private static final int[] OCTAVE_OFFSETS = { 0, -24, 0, 0, 0, -12, 12, 24, 24, 24, 0, 12, -24, 0, 0, 0 };
+
+    @Override
+    public void read(InputStream input, EventSink sink) throws IOException {
+        LittleEndianReader in = new LittleEndianReader(input);
+        int version = 0;
+        int vanillaInstruments = CLASSIC_VANILLA_INSTRUMENTS;
+        int first = in.readUnsignedShort();
+        if (first == 0) {
+            // 新格式以 0 开头，旧格式的这个位置是歌曲长度
+            version = in.readUnsignedByte();
+            vanillaInstruments = in.readUnsignedByte();
+            if (version >= 3) {
+                in.readUnsignedShort();
+            }
+        }
+        int layerCount = in.readUnsignedShort();
+        in.skipString(); // 歌曲名
+        in.skipString(); // 作者
+        in.skipString(); // 原作者
+        in.skipString(); // 描述
+        int tempo = in.readUnsignedShort();
+        if (tempo <= 0) {
+            tempo = DEFAULT_TEMPO;
+        }
+        // 自动保存、自动保存间隔、拍号，编辑时长、左右键点击数、添加和删除的音符块数
+        in.skip(3 + 5 * Integer.BYTES);
+        in.skipString(); // 导入的文件名
+        if (version >= 4) {
+            in.skip(4); // 循环开关、最大循环次数、循环开始刻
+        }
+
+        int[] notes = new int[1024 * NOTE_STRIDE];
+        int count = 0;
+        int tick = -1;
+        int jump;
+        while ((jump = in.readUnsignedShort()) != 0) {
+            tick += jump;
+            int layer = -1;
+            int layerJump;
+            while ((layerJump = in.readUnsignedShort()) != 0) {
+                layer += layerJump;
+                int instrument = in.readUnsignedByte();
+                int key = in.readUnsignedByte();
+                int velocity = MAX_VOLUME;
+                int pitch = 0;
+                if (version >= 4) {
+                    velocity = in.readUnsignedByte();
+                    in.readUnsignedByte(); // 声像
+                    pitch = (short) in.readUnsignedShort();
+                }
+                if (count >= SongLibrary.MAX_SONG_EVENTS) {
+                    continue;
+                }
+                int base = count * NOTE_STRIDE;
+                if (base + NOTE_STRIDE > notes.length) {
+                    notes = Arrays.copyOf(notes, notes.length * 2);
+                }
+                notes[base] = tick;
+                notes[base + 1] = layer;
+                notes[base + 2] = (instrument < vanillaInstruments ? instrument : -1) << 8 | key;
+                notes[base + 3] = velocity << 16 | (pitch & 0xFFFF);
+                count++;
+            }
+        }
+
+        int[] layerVolumes = new int[layerCount];
+        Arrays.fill(layerVolumes, MAX_VOLUME);
+        try {
+            for (int layer = 0; layer < layerCount; layer++) {
+                in.skipString(); // 图层名
+                if (version >= 4) {
+                    in.readUnsignedByte(); // 锁定
+                }
+                layerVolumes[layer] = in.readUnsignedByte();
+                if (version >= 2) {
+                    in.readUnsignedByte(); // 声像
+                }
+            }
+        } catch (EOFException e) {
+            // 部分工具导出的文件没有图层信息，缺少的图层按最大音量处理
+        }
+
+        double gameTicksPerNbsTick = 2000.0 / tempo;
+        for (int i = 0; i < count; i++) {
+            int base = i * NOTE_STRIDE;
+            int layer = notes[base + 1];
+            int layerVolume = layer < layerCount ? layerVolumes[layer] : MAX_VOLUME;
+            int velocity = (int) Math.round((notes[base + 3] >>> 16) * layerVolume * 127.0
+                    / (MAX_VOLUME * MAX_VOLUME));
+            if (velocity <= 0) {
+                continue;
+            }
+            int instrument = notes[base + 2] >> 8;
+            int key = notes[base + 2] & 0xFF;
+            int pitch = (short) notes[base + 3];
+            int instrumentId;
+            int note;
+            if (instrument < 0 || instrument >= GM_PROGRAMS.length) {
+                // 自定义乐器
+                instrumentId = 0;
+                note = key + MIDI_NOTE_OF_KEY_0;
+            } else if (GM_PROGRAMS[instrument] < 0) {
+                instrumentId = InstrumentMap.DRUM_KIT;
+                note = DRUM_NOTES[instrument];
+            } else {
+                instrumentId = InstrumentMap.gmInstrumentOrDefault(GM_PROGRAMS[instrument]);
+                note = key + MIDI_NOTE_OF_KEY_0 + OCTAVE_OFFSETS[instrument];
+            }
+            note = Math.max(0, Math.min(127, note + Math.round(pitch / 100.0f)));
+            int gameTick = (int) Math.round(notes[base] * gameTicksPerNbsTick);
+            sink.add(gameTick, NoteEvents.packVoice(instrumentId, note, Math.min(127, velocity)),
+                    NoteEvents.packEnvelope(NOTE_SUSTAIN_TICKS, 0, NOTE_FADE_OUT_TICKS));
+        }
+    }
+
+    /**
+     * 按小端序读取 NBS 文件中的基本类型。
+     */
+    private static class LittleEndianReader {
+        private final InputStream input;
+
+        LittleEndianReader(InputStream input) {
+            this.input = input;
+        }
+
+        int readUnsignedByte() throws IOException {
+            int value = input.read();
+            if (value < 0) {
+                throw new EOFException();
+            }
+            return value;
+        }
+
+        int readUnsignedShort() throws IOException {
+            return readUnsignedByte() | readUnsignedByte() << 8;
+        }
+
+        int readInt() throws IOException {
+            return readUnsignedShort() | readUnsignedShort() << 16;
+        }
+
+        void skip(int bytes) throws IOException {
+            input.skipNBytes(bytes);
+        }
+
+        /**
+         * 跳过一个字符串 (Int 长度 + 字节)，导入时不需要其中的内容。
+         */
+        void skipString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                throw new IOException("Invalid string length " + length);
+            }
+            input.skipNBytes(length);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.atemukesu.extendednoteblock.song;
+
+import java.util.Arrays;
+
+/**
+ * 音符事件的紧凑编码，音序器和歌曲缓存共用。
+ *
+ * 每个事件 {@value #STRIDE} 个整数：
+ * <ul>
+ * <li>距离开始播放的刻数。</li>
+ * <li>{@code 乐器 << 16 | 音符 << 8 | 力度}，见 {@link #packVoice(int, int, int)}。</li>
+ * <li>{@code 持续时间 << 20 | 淡入 << 10 | 淡出}，见 {@link #packEnvelope(int, int, int)}。</li>
+ * </ul>
+ */
+public final class NoteEvents {
+    public static final int STRIDE = 3;
+    public static final int MAX_SUSTAIN = (1 << 12) - 1;
+    public static final int MAX_FADE = (1 << 10) - 1;
+    // 同一刻内参与排序的事件数上限，超出部分保持原有顺序
+    private static final int MAX_EVENTS_PER_TICK_SORT = 1 << 16;
+
+    private NoteEvents() {
+    }
+
+    public static int packVoice(int instrumentId, int note, int velocity) {
+        return (instrumentId & 0xFF) << 16 | (note & 0x7F) << 8 | (velocity & 0x7F);
+    }
+
+    public static int packEnvelope(int sustainTicks, int fadeInTicks, int fadeOutTicks) {
+        return Math.min(MAX_SUSTAIN, Math.max(0, sustainTicks)) << 20
+                | Math.min(MAX_FADE, Math.max(0, fadeInTicks)) << 10
+                | Math.min(MAX_FADE, Math.max(0, fadeOutTicks));
+    }
+
+    public static int instrumentOf(int voice) {
+        return (voice >>> 16) & 0xFF;
+    }
+
+    public static int noteOf(int voice) {
+        return (voice >> 8) & 0x7F;
+    }
+
+    public static int velocityOf(int voice) {
+        return voice & 0x7F;
+    }
+
+    public static int sustainOf(int envelope) {
+        return envelope >>> 20;
+    }
+
+    public static int fadeInOf(int envelope) {
+        return (envelope >>> 10) & MAX_FADE;
+    }
+
+    public static int fadeOutOf(int envelope) {
+        return envelope & MAX_FADE;
+    }
+
+    /**
+     * 按刻数排序事件，同一刻中按乐器和包络排列，使它们在播放时能合并为和弦。
+     * 刻数为负的事件和末尾不完整的事件会被丢弃。
+     *
+     * @param eventCount 参与排序的事件数，只使用数组开头的 eventCount 个事件。
+     * @return 排好序的新数组。
+     */
+    public static int[] sort(int[] events, int eventCount) {
+        eventCount = Math.min(eventCount, events.length / STRIDE);
+        long[] keys = new long[eventCount];
+        int valid = 0;
+        for (int i = 0; i < eventCount; i++) {
+            int tick = events[i * STRIDE];
+            if (tick >= 0) {
+                // 高 32 位为刻数，低 32 位为原始下标，排序后可以找回事件
+                keys[valid++] = (long) tick << 32 | i;
+            }
+        }
+        Arrays.sort(keys, 0, valid);
+        int[] sorted = new int[valid * STRIDE];
+        for (int i = 0; i < valid; i++) {
+            System.arraycopy(events, (int) keys[i] * STRIDE, sorted, i * STRIDE, STRIDE);
+        }
+        int start = 0;
+        while (start < valid) {
+            int end = start + 1;
+            while (end < valid && sorted[end * STRIDE] == sorted[start * STRIDE]) {
+                end++;
+            }
+            if (end - start > 1) {
+                sortWithinTick(sorted, start, Math.min(end, start + MAX_EVENTS_PER_TICK_SORT));
+            }
+            start = end;
+        }
+        return sorted;
+    }
+
+    private static void sortWithinTick(int[] sorted, int start, int end) {
+        long[] keys = new long[end - start];
+        for (int i = start; i < end; i++) {
+            int base = i * STRIDE;
+            long instrument = instrumentOf(sorted[base + 1]);
+            keys[i - start] = instrument << 56 | (sorted[base + 2] & 0xFFFFFFFFL) << 16 | (i - start);
+        }
+        Arrays.sort(keys);
+        int[] copy = Arrays.copyOfRange(sorted, start * STRIDE, end * STRIDE);
+        for (int i = 0; i < keys.length; i++) {
+            System.arraycopy(copy, (int) (keys[i] & 0xFFFF) * STRIDE, sorted, (start + i) * STRIDE, STRIDE);
+        }
+    }
+}
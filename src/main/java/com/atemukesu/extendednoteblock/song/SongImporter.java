@@ -0,0 +1,22 @@
+package com.atemukesu.extendednoteblock.song;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 把一种歌曲文件格式转换为音符事件。导入在后台线程上进行，结果由 {@link SongLibrary} 排序并缓存。
+ */
+public interface SongImporter {
+    /**
+     * 读取歌曲文件，把每个音符交给 sink。事件不需要按刻数排序。
+     */
+    void read(InputStream input, EventSink sink) throws IOException;
+
+    /**
+     * 接收导入的音符事件，编码见 {@link NoteEvents}。
+     */
+    @FunctionalInterface
+    interface EventSink {
+        void add(int tick, int voice, int envelope);
+    }
+}
@@ -0,0 +1,257 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.minecraft.util.Util;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 服务器目录下 {@value #DIRECTORY_NAME} 文件夹中的歌曲。
+ *
+ * 歌曲文件在第一次使用时由对应格式的 {@link SongImporter} 在后台线程上解析，
+ * 排好序的事件写入 {@code .cache} 子文件夹，以文件内容的 SHA-1 哈希命名 (见 {@link CachedSong})。
+ * 之后再加载同一内容的文件时直接使用缓存，不再解析；文件被修改后哈希改变，会重新导入。
+ * 同时加载同一内容的多个请求共享一次导入。
+ */
+public class SongLibrary {
+    public static final String DIRECTORY_NAME = ExtendedNoteBlock.MOD_ID + "_songs";
+    private static final String CACHE_DIRECTORY = ".cache";
+    private static final String CACHE_EXTENSION = ".bin";
+    /**
+     * 一首歌曲最多的事件数，超出部分在导入时被丢弃。
+     */
+    public static final int MAX_SONG_EVENTS = 1 << 22;
+
+    // 文件扩展名 (小写，不含点) -> 导入器
+    private static final Map<String, SongImporter> importers = new HashMap<>();
+    // 哈希 -> 已打开的缓存
+    private static final Map<String, CachedSong> songs = new ConcurrentHashMap<>();
+    // 哈希 -> 正在进行的导入，同时加载同一内容的文件时共享一次导入
+    private static final Map<String, CompletableFuture<CachedSong>> importing = new ConcurrentHashMap<>();
+    @Nullable
+    private static volatile Path directory;
+
+    static {
+        MidiImporter midi = new MidiImporter();
+        importers.put("mid", midi);
+        importers.put("midi", midi);
+        importers.put("nbs", new NbsImporter());
+    }
+
+    public static void initialize() {
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            Path songsDirectory = server.getRunDirectory().toPath().resolve(DIRECTORY_NAME);
+            try {
+                Files.createDirectories(songsDirectory.resolve(CACHE_DIRECTORY));
+            } catch (IOException e) {
+                ExtendedNoteBlock.LOGGER.error("Failed to create song directory {}", songsDirectory, e);
+            }
+            directory = songsDirectory;
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            songs.values().forEach(CachedSong::close);
+            songs.clear();
+            directory = null;
+        });
+    }
+
+    /**
+     * 列出歌曲文件夹中所有支持的歌曲文件名。
+     */
+    public static List<String> listSongs() {
+        Path songsDirectory = directory;
+        List<String> names = new ArrayList<>();
+        if (songsDirectory == null) {
+            return names;
+        }
+        try (Stream<Path> files = Files.list(songsDirectory)) {
+            files.filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> importerFor(name) != null)
+                    .sorted()
+                    .forEach(names::add);
+        } catch (IOException e) {
+            ExtendedNoteBlock.LOGGER.warn("Failed to list songs in {}", songsDirectory, e);
+        }
+        return names;
+    }
+
+    /**
+     * 在后台线程上加载一首歌曲，必要时导入并写入缓存。
+     *
+     * @param fileName 歌曲文件夹中的文件名。
+     */
+    public static CompletableFuture<CachedSong> load(String fileName) {
+        Path songsDirectory = directory;
+        if (songsDirectory == null) {
+            return CompletableFuture.failedFuture(new IOException("Song directory is not available"));
+        }
+        Path file = songsDirectory.resolve(fileName).normalize();
+        SongImporter importer = importerFor(fileName);
+        // 只允许读取歌曲文件夹中的文件
+        if (!songsDirectory.normalize().equals(file.getParent()) || importer == null) {
+            return CompletableFuture.failedFuture(new IOException("Unsupported song file: " + fileName));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadBlocking(songsDirectory, file, importer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.getMainWorkerExecutor());
+    }
+
+    /**
+     * 按哈希获取已经导入的歌曲，只读取缓存文件头，用于从存档中恢复。
+     *
+     * @return 缓存的歌曲，缓存不存在时返回 null。
+     */
+    @Nullable
+    public static CachedSong getCached(String hash) {
+        CachedSong song = songs.get(hash);
+        Path songsDirectory = directory;
+        if (song != null || songsDirectory == null || !isHash(hash)) {
+            return song;
+        }
+        song = CachedSong.open(hash, cacheFile(songsDirectory, hash));
+        if (song == null) {
+            return null;
+        }
+        // 另一个线程可能同时打开了同一缓存
+        CachedSong existing = songs.putIfAbsent(hash, song);
+        if (existing != null) {
+            song.close();
+            return existing;
+        }
+        return song;
+    }
+
+    private static CachedSong loadBlocking(Path songsDirectory, Path file, SongImporter importer)
+            throws IOException {
+        String hash = hash(file);
+        CachedSong cached = getCached(hash);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<CachedSong> ownImport = new CompletableFuture<>();
+        CompletableFuture<CachedSong> otherImport = importing.putIfAbsent(hash, ownImport);
+        if (otherImport != null) {
+            // 另一个工作线程正在导入同一内容，等待它完成
+            try {
+                return otherImport.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+        try {
+            // 上一次导入可能在检查缓存之后、登记之前刚刚完成
+            CachedSong song = getCached(hash);
+            if (song == null) {
+                song = importSong(songsDirectory, file, importer, hash);
+            }
+            ownImport.complete(song);
+            return song;
+        } catch (IOException | RuntimeException e) {
+            ownImport.completeExceptionally(e);
+            throw e;
+        } finally {
+            importing.remove(hash, ownImport);
+        }
+    }
+
+    private static CachedSong importSong(Path songsDirectory, Path file, SongImporter importer, String hash)
+            throws IOException {
+        long start = System.nanoTime();
+        EventBuffer buffer = new EventBuffer();
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            importer.read(input, buffer);
+        }
+        int[] sorted = NoteEvents.sort(buffer.events, buffer.count);
+        Path cacheFile = cacheFile(songsDirectory, hash);
+        CachedSong.write(cacheFile, sorted);
+        CachedSong song = CachedSong.open(hash, cacheFile);
+        if (song == null) {
+            throw new IOException("Failed to read back song cache " + cacheFile);
+        }
+        CachedSong existing = songs.putIfAbsent(hash, song);
+        if (existing != null) {
+            song.close();
+            return existing;
+        }
+        ExtendedNoteBlock.LOGGER.info("Imported song {} ({} events) in {} ms", file.getFileName(),
+                song.eventCount(), (System.nanoTime() - start) / 1_000_000);
+        return song;
+    }
+
+    @Nullable
+    private static SongImporter importerFor(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? null : importers.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static Path cacheFile(Path songsDirectory, String hash) {
+        return songsDirectory.resolve(CACHE_DIRECTORY).resolve(hash + CACHE_EXTENSION);
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static boolean isHash(String value) {
+        return value.length() == 40 && value.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    /**
+     * 收集导入的事件，按需扩容。
+     */
+    private static class EventBuffer implements SongImporter.EventSink {
+        private int[] events = new int[1024 * NoteEvents.STRIDE];
+        private int count;
+
+        @Override
+        public void add(int tick, int voice, int envelope) {
+            if (count >= MAX_SONG_EVENTS) {
+                return;
+            }
+            int base = count * NoteEvents.STRIDE;
+            if (base + NoteEvents.STRIDE > events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+            events[base] = tick;
+            events[base + 1] = voice;
+            events[base + 2] = envelope;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * 一个 {@link EventSource} 的播放进度。
+ *
+ * 事件按 {@value #WINDOW_EVENTS} 个一段从事件源中读取到固定大小的窗口里，
+ * 无论歌曲有多长，每个播放进度只占用一个窗口的内存。
+ * 每次 {@link #playStep} 播放当前刻的所有事件，同一刻中乐器和包络相同的事件作为一个和弦一起开始，
+ * 然后返回距离下一组事件的刻数，由调用者安排到时间轮中。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class SongPlayback {
+    private static final int WINDOW_EVENTS = 256;
+    // 同一刻中作为一个和弦开始的最大声音数
+    private static final int MAX_CHORD_VOICES = 16;
+
+    // 播放和弦时复用的缓冲区，只在服务器主线程上使用
+    private static final int[] chordNotes = new int[MAX_CHORD_VOICES];
+    private static final int[] chordVelocities = new int[MAX_CHORD_VOICES];
+
+    private final EventSource source;
+    private final int[] window = new int[WINDOW_EVENTS * NoteEvents.STRIDE];
+    private int windowStart;
+    private int windowCount;
+    private int cursor;
+
+    public SongPlayback(EventSource source) {
+        this.source = source;
+    }
+
+    public EventSource getSource() {
+        return source;
+    }
+
+    /**
+     * 获取下一个要播放的事件的下标。
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * 跳到指定的事件下标，用于从存档中恢复进度。
+     */
+    public void seek(int eventIndex) {
+        this.cursor = Math.max(0, Math.min(eventIndex, source.eventCount()));
+    }
+
+    public boolean isFinished() {
+        return cursor >= source.eventCount();
+    }
+
+    /**
+     * 获取下一个要播放的事件开始的刻数，已经播放完或读取失败时返回 -1。
+     */
+    public int nextTick() {
+        int offset = offsetOf(cursor);
+        return offset < 0 ? -1 : window[offset];
+    }
+
+    /**
+     * 播放当前刻的所有事件。
+     *
+     * @return 距离下一组事件的刻数，已经播放完时返回 -1。
+     */
+    public int playStep(ServerWorld world, BlockPos pos) {
+        int tick = nextTick();
+        if (tick < 0) {
+            cursor = source.eventCount();
+            return -1;
+        }
+        int chordSize = 0;
+        int chordVoice = 0;
+        int chordEnvelope = 0;
+        int offset;
+        while ((offset = offsetOf(cursor)) >= 0 && window[offset] == tick) {
+            int voice = window[offset + 1];
+            int envelope = window[offset + 2];
+            // 乐器或包络不同的事件不能放进同一个和弦
+            if (chordSize > 0 && (chordSize == MAX_CHORD_VOICES
+                    || NoteEvents.instrumentOf(voice) != NoteEvents.instrumentOf(chordVoice)
+                    || envelope != chordEnvelope)) {
+                playChord(world, pos, chordVoice, chordEnvelope, chordSize);
+                chordSize = 0;
+            }
+            chordVoice = voice;
+            chordEnvelope = envelope;
+            chordNotes[chordSize] = NoteEvents.noteOf(voice);
+            chordVelocities[chordSize] = NoteEvents.velocityOf(voice);
+            chordSize++;
+            cursor++;
+        }
+        if (chordSize > 0) {
+            playChord(world, pos, chordVoice, chordEnvelope, chordSize);
+        }
+        int next = nextTick();
+        if (next < 0) {
+            cursor = source.eventCount();
+            return -1;
+        }
+        return next - tick;
+    }
+
+    private static void playChord(ServerWorld world, BlockPos pos, int voice, int envelope, int count) {
+        ServerSoundManager.playChord(world, pos, NoteEvents.instrumentOf(voice), chordNotes, chordVelocities, count,
+                NoteEvents.sustainOf(envelope), NoteEvents.fadeInOf(envelope), NoteEvents.fadeOutOf(envelope));
+    }
+
+    /**
+     * 获取事件在窗口中的偏移量，必要时从事件源读取新的窗口。
+     *
+     * @return 偏移量，事件不存在或读取失败时返回 -1。
+     */
+    private int offsetOf(int eventIndex) {
+        if (eventIndex < windowStart || eventIndex >= windowStart + windowCount) {
+            if (eventIndex >= source.eventCount()) {
+                return -1;
+            }
+            windowStart = eventIndex;
+            windowCount = source.read(eventIndex, window, WINDOW_EVENTS);
+            if (windowCount == 0) {
+                return -1;
+            }
+        }
+        return (eventIndex - windowStart) * NoteEvents.STRIDE;
+    }
+}
@@ -0,0 +1,172 @@
+package com.atemukesu.extendednoteblock.song;
+
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
+import com.atemukesu.extendednoteblock.sound.ServerSoundManager;
+import com.atemukesu.extendednoteblock.util.TimingWheel;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不依赖方块的歌曲播放。
+ *
+ * 每首歌曲在世界中的一个位置播放，与音序器一样由 {@link NoteTriggerScheduler} 的时间轮按刻推进，
+ * 通过 {@link ServerSoundManager} 发出声音，每个播放只占用一个 {@link SongPlayback} 的事件窗口。
+ * 时间轮条目的标签高 24 位是播放编号。
+ *
+ * 播放不随世界保存，服务器停止或世界卸载时结束。
+ */
+public class SongPlayers {
+    private static final int ID_MASK = (1 << 24) - 1;
+
+    private static final Int2ObjectOpenHashMap<Player> players = new Int2ObjectOpenHashMap<>();
+    private static int nextId = 1;
+
+    public static void initialize() {
+        ServerWorldEvents.UNLOAD.register((server, world) -> players.values().removeIf(player -> player.world == world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            players.clear();
+            nextId = 1;
+        });
+    }
+
+    /**
+     * 在指定位置开始播放一首歌曲。
+     *
+     * @return 播放编号，可用于 {@link #stop(int)}；歌曲没有事件时返回 0。
+     */
+    public static int play(ServerWorld world, BlockPos pos, EventSource song, String name) {
+        SongPlayback playback = new SongPlayback(song);
+        int firstTick = playback.nextTick();
+        if (firstTick < 0) {
+            return 0;
+        }
+        int id = allocateId();
+        Player player = new Player(id, world, pos.toImmutable(), name, playback);
+        players.put(id, player);
+        if (firstTick == 0) {
+            playStep(world, id);
+        } else {
+            player.scheduledHandle = NoteTriggerScheduler.scheduleTicks(world, player.pos.asLong(), firstTick,
+                    NoteTriggerScheduler.songTag(id));
+        }
+        return id;
+    }
+
+    /**
+     * 停止一个播放，并停止它在该位置仍在发声的声音。
+     *
+     * @return 播放是否存在。
+     */
+    public static boolean stop(int id) {
+        Player player = players.remove(id);
+        if (player == null) {
+            return false;
+        }
+        NoteTriggerScheduler.cancel(player.world, player.scheduledHandle);
+        ServerSoundManager.stopSound(player.world, player.pos);
+        return true;
+    }
+
+    /**
+     * 停止所有播放。
+     *
+     * @return 停止的播放数。
+     */
+    public static int stopAll() {
+        int[] ids = players.keySet().toIntArray();
+        for (int id : ids) {
+            stop(id);
+        }
+        return ids.length;
+    }
+
+    /**
+     * 获取所有正在进行的播放，按编号排序。
+     */
+    public static List<Player> getPlayers() {
+        List<Player> result = new ArrayList<>(players.values());
+        result.sort((a, b) -> Integer.compare(a.id, b.id));
+        return result;
+    }
+
+    /**
+     * 播放当前刻的所有事件，并安排下一组事件。由 {@link NoteTriggerScheduler} 在服务器主线程上调用。
+     */
+    public static void playStep(ServerWorld world, int id) {
+        Player player = players.get(id);
+        if (player == null || player.world != world) {
+            return;
+        }
+        player.scheduledHandle = TimingWheel.INVALID_HANDLE;
+        int delay = player.playback.playStep(world, player.pos);
+        if (delay >= 0) {
+            player.scheduledHandle = NoteTriggerScheduler.scheduleTicks(world, player.pos.asLong(), delay,
+                    NoteTriggerScheduler.songTag(id));
+        } else {
+            players.remove(id);
+        }
+    }
+
+    private static int allocateId() {
+        // 编号回绕后跳过仍在使用的编号和 0
+        while (nextId == 0 || players.containsKey(nextId)) {
+            nextId = (nextId + 1) & ID_MASK;
+        }
+        int id = nextId;
+        nextId = (nextId + 1) & ID_MASK;
+        return id;
+    }
+
+    /**
+     * 一首正在播放的歌曲。
+     */
+    public static class Player {
+        private final int id;
+        private final ServerWorld world;
+        private final BlockPos pos;
+        private final String name;
+        private final SongPlayback playback;
+        private int scheduledHandle = TimingWheel.INVALID_HANDLE;
+
+        private Player(int id, ServerWorld world, BlockPos pos, String name, SongPlayback playback) {
+            this.id = id;
+            this.world = world;
+            this.pos = pos;
+            this.name = name;
+            this.playback = playback;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public ServerWorld getWorld() {
+            return world;
+        }
+
+        public BlockPos getPos() {
+            return pos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 获取下一组事件开始的刻数，已经播放完时返回 -1。
+         */
+        public int getPositionTicks() {
+            return playback.nextTick();
+        }
+
+        public int getLengthTicks() {
+            return playback.getSource().lengthTicks();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 记录一个世界中哪些玩家能听到哪些声音。
+ *
+ * 声音只发送给可听半径内的玩家，而不是所有加载了该区块的玩家。
+ * 玩家按区块区段放入一个空间网格，每个区段附近的候选玩家列表在每刻内只计算一次。
+ * 每个玩家还记录已经收到开始事件的声音句柄，之后的音量关键帧和停止事件只发给这些玩家，
+ * 即使玩家已经走出可听半径也能正确结束声音。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class AudienceTracker {
+    private final ServerWorld world;
+    // 玩家所在区段 -> 该区段内的玩家，每刻第一次查询时重建
+    private final Long2ObjectOpenHashMap<List<ServerPlayerEntity>> playersBySection = new Long2ObjectOpenHashMap<>();
+    // 区段 -> 该区段可听范围内的候选玩家，每刻内缓存
+    private final Long2ObjectOpenHashMap<List<ServerPlayerEntity>> candidatesBySection = new Long2ObjectOpenHashMap<>();
+    private boolean gridValid;
+    // 玩家 -> 已经收到开始事件的声音句柄
+    private final Map<ServerPlayerEntity, IntOpenHashSet> heardVoices = new IdentityHashMap<>();
+
+    AudienceTracker(ServerWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * 在每刻开始使用前调用，使空间网格失效并移除已经离开该世界的玩家。
+     */
+    void beginTick() {
+        gridValid = false;
+        candidatesBySection.clear();
+        if (heardVoices.isEmpty()) {
+            return;
+        }
+        Iterator<ServerPlayerEntity> it = heardVoices.keySet().iterator();
+        while (it.hasNext()) {
+            ServerPlayerEntity player = it.next();
+            if (player.isRemoved() || player.getServerWorld() != world) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 获取能听到指定位置的玩家。返回的列表只在当前刻内有效，不能修改。
+     */
+    List<ServerPlayerEntity> listenersNear(BlockPos pos, int radius) {
+        long sectionKey = ChunkSectionPos.toLong(pos);
+        List<ServerPlayerEntity> candidates = candidatesBySection.get(sectionKey);
+        if (candidates == null) {
+            candidates = collectCandidates(sectionKey, radius);
+            candidatesBySection.put(sectionKey, candidates);
+        }
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        double maxDistance = (double) radius * radius;
+        double x = pos.getX() + 0.5;
+        double y = pos.getY() + 0.5;
+        double z = pos.getZ() + 0.5;
+        List<ServerPlayerEntity> listeners = new ArrayList<>(candidates.size());
+        for (ServerPlayerEntity player : candidates) {
+            if (player.squaredDistanceTo(x, y, z) <= maxDistance) {
+                listeners.add(player);
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * 获取当前刻位于该世界中的所有玩家按区段分组后的网格。
+     */
+    Long2ObjectOpenHashMap<List<ServerPlayerEntity>> playerGrid() {
+        if (!gridValid) {
+            playersBySection.clear();
+            for (ServerPlayerEntity player : world.getPlayers()) {
+                playersBySection.computeIfAbsent(ChunkSectionPos.toLong(player.getBlockPos()),
+                        key -> new ArrayList<>(2)).add(player);
+            }
+            gridValid = true;
+        }
+        return playersBySection;
+    }
+
+    private List<ServerPlayerEntity> collectCandidates(long sectionKey, int radius) {
+        Long2ObjectOpenHashMap<List<ServerPlayerEntity>> grid = playerGrid();
+        if (grid.isEmpty()) {
+            return List.of();
+        }
+        int sectionRadius = sectionRadius(radius);
+        int centerX = ChunkSectionPos.unpackX(sectionKey);
+        int centerY = ChunkSectionPos.unpackY(sectionKey);
+        int centerZ = ChunkSectionPos.unpackZ(sectionKey);
+        List<ServerPlayerEntity> candidates = new ArrayList<>();
+        // 玩家数少于待检查的区段数时直接遍历玩家
+        int volume = (2 * sectionRadius + 1) * (2 * sectionRadius + 1) * (2 * sectionRadius + 1);
+        if (grid.size() < volume) {
+            for (var entry : grid.long2ObjectEntrySet()) {
+                long key = entry.getLongKey();
+                if (Math.abs(ChunkSectionPos.unpackX(key) - centerX) <= sectionRadius
+                        && Math.abs(ChunkSectionPos.unpackY(key) - centerY) <= sectionRadius
+                        && Math.abs(ChunkSectionPos.unpackZ(key) - centerZ) <= sectionRadius) {
+                    candidates.addAll(entry.getValue());
+                }
+            }
+            return candidates;
+        }
+        for (int x = centerX - sectionRadius; x <= centerX + sectionRadius; x++) {
+            for (int y = centerY - sectionRadius; y <= centerY + sectionRadius; y++) {
+                for (int z = centerZ - sectionRadius; z <= centerZ + sectionRadius; z++) {
+                    List<ServerPlayerEntity> players = grid.get(ChunkSectionPos.asLong(x, y, z));
+                    if (players != null) {
+                        candidates.addAll(players);
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 记录玩家已经收到某个声音的开始事件。
+     *
+     * @return 如果玩家之前还没有收到过该声音，则返回 true。
+     */
+    boolean markHeard(ServerPlayerEntity player, int handle) {
+        return heardVoices.computeIfAbsent(player, key -> new IntOpenHashSet()).add(handle);
+    }
+
+    boolean hasHeard(ServerPlayerEntity player, int handle) {
+        IntOpenHashSet heard = heardVoices.get(player);
+        return heard != null && heard.contains(handle);
+    }
+
+    /**
+     * 获取已经收到某个声音开始事件的玩家。
+     */
+    List<ServerPlayerEntity> audienceOf(int handle) {
+        List<ServerPlayerEntity> audience = new ArrayList<>(2);
+        for (Map.Entry<ServerPlayerEntity, IntOpenHashSet> entry : heardVoices.entrySet()) {
+            if (entry.getValue().contains(handle)) {
+                audience.add(entry.getKey());
+            }
+        }
+        return audience;
+    }
+
+    /**
+     * 声音结束后调用，从所有玩家的记录中移除该句柄。
+     */
+    void forget(int handle) {
+        for (IntOpenHashSet heard : heardVoices.values()) {
+            heard.remove(handle);
+        }
+    }
+
+    static int sectionRadius(int radius) {
+        return Math.max(1, (radius + 15) >> 4);
+    }
+}
@@ -0,0 +1,157 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import com.atemukesu.extendednoteblock.ExtendedNoteBlock;
+import com.atemukesu.extendednoteblock.block.NoteTriggerScheduler;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.PersistentState;
+
+/**
+ * 随世界保存尚未触发的延迟音符和仍在播放的声音，使它们在区块卸载或服务器重启后能够继续。
+ *
+ * 数据保存在 {@code data/extendednoteblock_playback.dat} 中，全部使用基本类型数组，恢复时不需要逐条解析 NBT：
+ * <ul>
+ * <li>{@code triggerPositions} / {@code triggerDelays} / {@code triggerTags}：延迟触发的位置、剩余刻数和标签
+ * (见 {@link NoteTriggerScheduler})，缺少标签时按扩展音符盒处理。歌曲播放的触发不保存。</li>
+ * <li>{@code voicePositions} / {@code voices}：声音的位置，以及每个声音 {@value #VOICE_STRIDE} 个整数：
+ * 乐器、音符 &lt;&lt; 8 | 力度、总时长、淡入、淡出、已播放的刻数。</li>
+ * </ul>
+ *
+ * 恢复的声音不会立即发送给客户端，而是在 {@link WorldSoundEngine} 的补发检查中按已播放的刻数发送。
+ * 强制淡出中的声音很快就会结束，不会被保存。
+ */
+public class PlaybackPersistentState extends PersistentState {
+    public static final String ID = ExtendedNoteBlock.MOD_ID + "_playback";
+    private static final int DATA_VERSION = 1;
+    private static final int VOICE_STRIDE = 6;
+
+    private final ServerWorld world;
+    // 从存档读取、尚未恢复的数据，恢复后清空
+    private long[] loadedTriggerPositions = new long[0];
+    private int[] loadedTriggerDelays = new int[0];
+    private int[] loadedTriggerTags = new int[0];
+    private long[] loadedVoicePositions = new long[0];
+    private int[] loadedVoices = new int[0];
+    // 上一刻是否有需要保存的数据，用于在数据清空后再保存一次
+    private boolean hadData;
+
+    private PlaybackPersistentState(ServerWorld world) {
+        this.world = world;
+    }
+
+    public static void initialize() {
+        ServerWorldEvents.LOAD.register((server, world) -> get(world).restore());
+        ServerTickEvents.END_WORLD_TICK.register(world -> get(world).updateDirty());
+    }
+
+    private static PlaybackPersistentState get(ServerWorld world) {
+        return world.getPersistentStateManager().getOrCreate(
+                nbt -> fromNbt(world, nbt), () -> new PlaybackPersistentState(world), ID);
+    }
+
+    private static PlaybackPersistentState fromNbt(ServerWorld world, NbtCompound nbt) {
+        PlaybackPersistentState state = new PlaybackPersistentState(world);
+        if (nbt.getInt("version") != DATA_VERSION) {
+            return state;
+        }
+        long[] triggerPositions = nbt.getLongArray("triggerPositions");
+        int[] triggerDelays = nbt.getIntArray("triggerDelays");
+        if (triggerPositions.length == triggerDelays.length) {
+            int[] triggerTags = nbt.getIntArray("triggerTags");
+            state.loadedTriggerPositions = triggerPositions;
+            state.loadedTriggerDelays = triggerDelays;
+            state.loadedTriggerTags = triggerTags.length == triggerPositions.length
+                    ? triggerTags
+                    : new int[triggerPositions.length];
+        }
+        long[] voicePositions = nbt.getLongArray("voicePositions");
+        int[] voices = nbt.getIntArray("voices");
+        if (voices.length == voicePositions.length * VOICE_STRIDE) {
+            state.loadedVoicePositions = voicePositions;
+            state.loadedVoices = voices;
+        }
+        return state;
+    }
+
+    /**
+     * 把存档中的延迟音符放回时间轮，把声音放回声音引擎。
+     */
+    private void restore() {
+        for (int i = 0; i < loadedTriggerPositions.length; i++) {
+            NoteTriggerScheduler.scheduleTicks(world, loadedTriggerPositions[i], loadedTriggerDelays[i],
+                    loadedTriggerTags[i]);
+        }
+        if (loadedVoicePositions.length > 0) {
+            WorldSoundEngine engine = ServerSoundManager.getOrCreateEngine(world);
+            for (int i = 0; i < loadedVoicePositions.length; i++) {
+                int base = i * VOICE_STRIDE;
+                int noteAndVelocity = loadedVoices[base + 1];
+                engine.restoreVoice(loadedVoicePositions[i], loadedVoices[base], (noteAndVelocity >> 8) & 0xFF,
+                        noteAndVelocity & 0xFF, loadedVoices[base + 2], loadedVoices[base + 3],
+                        loadedVoices[base + 4], loadedVoices[base + 5]);
+            }
+        }
+        hadData = loadedTriggerPositions.length > 0 || loadedVoicePositions.length > 0;
+        loadedTriggerPositions = new long[0];
+        loadedTriggerDelays = new int[0];
+        loadedTriggerTags = new int[0];
+        loadedVoicePositions = new long[0];
+        loadedVoices = new int[0];
+    }
+
+    /**
+     * 有数据需要保存时标记为脏，使世界保存时写入最新状态。
+     */
+    private void updateDirty() {
+        WorldSoundEngine engine = ServerSoundManager.getEngine(world);
+        boolean hasData = NoteTriggerScheduler.getPendingTriggerCount(world) > 0
+                || (engine != null && engine.getSustainingVoiceCount() > 0);
+        if (hasData || hadData) {
+            markDirty();
+        }
+        hadData = hasData;
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt) {
+        nbt.putInt("version", DATA_VERSION);
+
+        LongArrayList triggerPositions = new LongArrayList();
+        IntArrayList triggerDelays = new IntArrayList();
+        IntArrayList triggerTags = new IntArrayList();
+        NoteTriggerScheduler.forEachPending(world, (packedPos, tag, remainingTicks) -> {
+            if (!NoteTriggerScheduler.isPersistent(tag)) {
+                return;
+            }
+            triggerPositions.add(packedPos);
+            triggerDelays.add((int) Math.min(Integer.MAX_VALUE, remainingTicks));
+            triggerTags.add(tag);
+        });
+        nbt.putLongArray("triggerPositions", triggerPositions.toLongArray());
+        nbt.putIntArray("triggerDelays", triggerDelays.toIntArray());
+        nbt.putIntArray("triggerTags", triggerTags.toIntArray());
+
+        LongArrayList voicePositions = new LongArrayList();
+        IntArrayList voices = new IntArrayList();
+        WorldSoundEngine engine = ServerSoundManager.getEngine(world);
+        if (engine != null) {
+            engine.forEachSustainingVoice((packedPos, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                    fadeOutTicks, elapsedTicks) -> {
+                voicePositions.add(packedPos);
+                voices.add(instrumentId);
+                voices.add((note & 0xFF) << 8 | (velocity & 0xFF));
+                voices.add(sustainTicks);
+                voices.add(fadeInTicks);
+                voices.add(fadeOutTicks);
+                voices.add(elapsedTicks);
+            });
+        }
+        nbt.putLongArray("voicePositions", voicePositions.toLongArray());
+        nbt.putIntArray("voices", voices.toIntArray());
+        return nbt;
+    }
+}
@@ -1,48 +1,131 @@
 package com.atemukesu.extendednoteblock.sound;
 
-import com.atemukesu.extendednoteblock.network.ModMessages;
+import com.atemukesu.extendednoteblock.config.ServerConfig;
+import com.atemukesu.extendednoteblock.config.ServerConfigManager;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
-import net.minecraft.server.MinecraftServer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
+/**
+ * 服务器端的声音管理器。
+ *
+ * 声音按世界分区：每个 {@link ServerWorld} 拥有一个独立的 {@link WorldSoundEngine}，
+ * 在该世界的 {@code END_WORLD_TICK} 中更新，在世界卸载或服务器停止时销毁。
+ * 这个类只负责按世界分发调用，保留原有的静态入口。
+ */
 public class ServerSoundManager {
 
-    private static final ConcurrentHashMap<UUID, ActiveSoundFader> activeSounds = new ConcurrentHashMap<>();
+    private static final Map<ServerWorld, WorldSoundEngine> engines = new IdentityHashMap<>();
 
     public static void initialize() {
-        ServerTickEvents.END_SERVER_TICK.register(ServerSoundManager::tick);
+        ServerTickEvents.END_WORLD_TICK.register(world -> {
+            WorldSoundEngine engine = engines.get(world);
+            if (engine != null) {
+                long start = System.nanoTime();
+                engine.tick();
+                engine.getStats().add(SoundStats.TICK_NANOS, System.nanoTime() - start);
+                engine.getStats().endTick();
+            }
+        });
+        ServerWorldEvents.UNLOAD.register((server, world) -> engines.remove(world));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> engines.clear());
     }
 
     public static void playSound(ServerWorld world, BlockPos pos, int instrumentId, int note, int velocity,
             int sustainTicks, int fadeInTicks, int fadeOutTicks) {
-        UUID soundId = UUID.randomUUID();
-        ActiveSoundFader fader = new ActiveSoundFader(world, pos, soundId, velocity, sustainTicks, fadeInTicks,
+        getOrCreateEngine(world).playSound(pos, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                fadeOutTicks);
+    }
+
+    /**
+     * 在同一位置同时开始多个共享乐器和包络的声音 (和弦)。
+     *
+     * @param count 声音数，数组中只有前 count 个元素有效。
+     */
+    public static void playChord(ServerWorld world, BlockPos pos, int instrumentId, int[] notes, int[] velocities,
+            int count, int sustainTicks, int fadeInTicks, int fadeOutTicks) {
+        getOrCreateEngine(world).playChord(pos, instrumentId, notes, velocities, count, sustainTicks, fadeInTicks,
                 fadeOutTicks);
-        activeSounds.put(soundId, fader);
-        float initialVolume = (fadeInTicks <= 1) ? (velocity / 127.0f) : 0.001f; // 音量大小
-        ModMessages.sendStartSoundToClients(world, pos, soundId, instrumentId, note, velocity, initialVolume); // 传递初始音量
     }
 
+    /**
+     * 让指定位置上的所有声音开始淡出。
+     */
     public static void stopSound(ServerWorld world, BlockPos pos) {
-        activeSounds.values().stream()
-                .filter(fader -> fader.getPos().equals(pos))
-                .forEach(ActiveSoundFader::startFadeOut);
+        WorldSoundEngine engine = engines.get(world);
+        if (engine != null) {
+            engine.stopSound(pos);
+        }
     }
 
-    private static void tick(MinecraftServer server) {
-        if (activeSounds.isEmpty())
-            return;
+    /**
+     * 获取指定世界的声音引擎，如果该世界还没有播放过声音则返回 null。
+     */
+    @Nullable
+    public static WorldSoundEngine getEngine(ServerWorld world) {
+        return engines.get(world);
+    }
+
+    public static Collection<WorldSoundEngine> getEngines() {
+        return Collections.unmodifiableCollection(engines.values());
+    }
 
-        activeSounds.forEach((uuid, fader) -> {
-            boolean isFinished = fader.tick();
-            if (isFinished) {
-                activeSounds.remove(uuid);
-                ModMessages.sendStopSoundToClients(fader.getWorld(), fader.getPos(), uuid);
+    /**
+     * 检查所有世界的全局复音上限，必要时在所有世界中选出声音强制淡出，为即将开始的声音腾出位置。
+     * 由 {@link WorldSoundEngine} 在开始新声音之前调用。
+     *
+     * @param needed 即将开始的声音数。
+     */
+    static void enforceGlobalLimit(int needed) {
+        ServerConfig config = ServerConfigManager.getConfig();
+        int limit = config.maxVoices;
+        if (limit <= 0) {
+            return;
+        }
+        VoiceStealPolicy policy = WorldSoundEngine.policy(config);
+        while (getSustainingVoiceCount() + needed > limit) {
+            WorldSoundEngine victimEngine = null;
+            int victimSlot = -1;
+            float victimScore = Float.MAX_VALUE;
+            for (WorldSoundEngine engine : engines.values()) {
+                int slot = engine.findVictim(policy);
+                if (slot < 0) {
+                    continue;
+                }
+                float score = engine.victimScore(policy, slot);
+                if (victimEngine == null || score < victimScore) {
+                    victimEngine = engine;
+                    victimSlot = slot;
+                    victimScore = score;
+                }
             }
-        });
+            if (victimEngine == null) {
+                return;
+            }
+            victimEngine.fadeOut(victimSlot);
+        }
+    }
+
+    /**
+     * 获取所有世界中尚未进入强制淡出的声音总数。
+     */
+    public static int getSustainingVoiceCount() {
+        int count = 0;
+        for (WorldSoundEngine engine : engines.values()) {
+            count += engine.getSustainingVoiceCount();
+        }
+        return count;
+    }
+
+    static WorldSoundEngine getOrCreateEngine(ServerWorld world) {
+        return engines.computeIfAbsent(world, WorldSoundEngine::new);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package com.atemukesu.extendednoteblock.sound;
+
+/**
+ * 音符音量包络的纯计算工具，服务器和客户端共用同一套公式。
+ *
+ * 服务器只在开始播放时把包络参数发送给客户端，
+ * 之后由客户端在 {@code StoppablePositionalSoundInstance.tick()} 中逐刻本地计算音量，
+ * 服务器端的 {@link VoicePool} 则用同样的公式跟踪声音的生命周期。
+ *
+ * 包络的刻数从 1 开始计数：第 1 刻是声音开始后的第一个游戏刻。
+ */
+public final class SoundEnvelope {
+    /**
+     * 淡入开始时使用的最小音量。
+     * 音量为 0 的声音会被客户端的声音系统直接跳过，因此需要一个极小的非零值。
+     */
+    public static final float MIN_AUDIBLE_VOLUME = 0.001f;
+
+    /**
+     * 量化音量的最大值。数据包中的音量以一个无符号字节传输，1/255 的步长低于可闻差异。
+     */
+    public static final int QUANTIZED_VOLUME_MAX = 255;
+
+    private SoundEnvelope() {
+    }
+
+    /**
+     * 计算包络在指定刻的绝对音量。
+     *
+     * @param velocity     MIDI 力度 (0-127)。
+     * @param sustainTicks 总时长 (刻)，0 表示不限时长。
+     * @param fadeInTicks  淡入时长 (刻)。
+     * @param fadeOutTicks 淡出时长 (刻)。
+     * @param tick         包络中的当前刻 (从 1 开始)。
+     * @return 范围在 0-1 之间的绝对音量。
+     */
+    public static float volumeAt(int velocity, int sustainTicks, int fadeInTicks, int fadeOutTicks, int tick) {
+        float baseMaxVolume = velocity / 127.0f;
+        float volumeMultiplier = 1.0f;
+
+        // 计算淡入效果
+        if (fadeInTicks > 0 && tick <= fadeInTicks) {
+            float fadeInProgress = (float) (tick - 1) / (float) fadeInTicks;
+            volumeMultiplier = Math.min(volumeMultiplier, fadeInProgress);
+        }
+
+        // 计算淡出效果
+        if (fadeOutTicks > 0 && sustainTicks > 0) {
+            int fadeOutStartTick = sustainTicks - fadeOutTicks;
+            if (tick > fadeOutStartTick) {
+                int timeIntoFadeOut = tick - fadeOutStartTick;
+                float fadeOutProgress = 1.0f - ((float) timeIntoFadeOut / (float) fadeOutTicks);
+                volumeMultiplier = Math.min(volumeMultiplier, fadeOutProgress);
+            }
+        }
+
+        // 确保音量在有效范围内
+        return Math.max(0.0f, Math.min(baseMaxVolume * volumeMultiplier, 1.0f));
+    }
+
+    /**
+     * 计算声音开始播放时交给声音系统的音量。
+     *
+     * @param velocity     MIDI 力度 (0-127)。
+     * @param sustainTicks 总时长 (刻)。
+     * @param fadeInTicks  淡入时长 (刻)。
+     * @param fadeOutTicks 淡出时长 (刻)。
+     * @param startTick    开始播放时所处的包络刻，新触发的音符为 0。
+     * @return 不小于 {@link #MIN_AUDIBLE_VOLUME} 的初始音量。
+     */
+    public static float initialVolume(int velocity, int sustainTicks, int fadeInTicks, int fadeOutTicks,
+            int startTick) {
+        if (startTick <= 0) {
+            return (fadeInTicks <= 1) ? (velocity / 127.0f) : MIN_AUDIBLE_VOLUME;
+        }
+        return Math.max(MIN_AUDIBLE_VOLUME, volumeAt(velocity, sustainTicks, fadeInTicks, fadeOutTicks, startTick));
+    }
+
+    /**
+     * 判断包络在指定刻是否已经自然结束。
+     *
+     * @param sustainTicks 总时长 (刻)，0 表示不限时长。
+     * @param tick         包络中的当前刻。
+     * @return 如果声音应当结束，则返回 true。
+     */
+    public static boolean isExpired(int sustainTicks, int tick) {
+        return sustainTicks > 0 && tick > sustainTicks;
+    }
+
+    /**
+     * 把 0-1 之间的音量量化为一个字节。
+     *
+     * @param volume 绝对音量。
+     * @return 范围在 0-{@value #QUANTIZED_VOLUME_MAX} 之间的量化音量。
+     */
+    public static int quantizeVolume(float volume) {
+        int quantized = Math.round(volume * QUANTIZED_VOLUME_MAX);
+        return Math.max(0, Math.min(quantized, QUANTIZED_VOLUME_MAX));
+    }
+
+    /**
+     * 把量化音量还原为 0-1 之间的绝对音量。
+     */
+    public static float dequantizeVolume(int quantized) {
+        return (quantized & 0xFF) / (float) QUANTIZED_VOLUME_MAX;
+    }
+
+    /**
+     * 计算线性音量斜坡（例如强制淡出）在指定进度时的音量。
+     *
+     * @param startVolume  斜坡开始时的音量。
+     * @param targetVolume 斜坡的目标音量。
+     * @param rampTicks    斜坡时长 (刻)。
+     * @param progress     已经经过的刻数。
+     * @return 当前音量。
+     */
+    public static float rampVolume(float startVolume, float targetVolume, int rampTicks, int progress) {
+        if (rampTicks <= 0 || progress >= rampTicks) {
+            return targetVolume;
+        }
+        float ratio = (float) progress / rampTicks;
+        return startVolume + (targetVolume - startVolume) * ratio;
+    }
+}
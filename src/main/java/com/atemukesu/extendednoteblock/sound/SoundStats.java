@@ -0,0 +1,100 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import java.util.Arrays;
+
+/**
+ * 声音引擎的统计计数器，带有按秒滚动的历史记录。
+ *
+ * 计数先累加到当前秒的桶中，每 20 刻调用一次 {@link #rollSecond()} 把当前桶存入环形历史，
+ * 最多保留 {@link #HISTORY_SECONDS} 秒，用于计算 1 分钟和 5 分钟的平均值。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class SoundStats {
+    public static final int VOICES_STARTED = 0;
+    public static final int VOICES_STOPPED = 1;
+    public static final int START_EVENTS = 2;
+    public static final int START_BYTES = 3;
+    public static final int VOLUME_EVENTS = 4;
+    public static final int VOLUME_BYTES = 5;
+    public static final int STOP_EVENTS = 6;
+    public static final int STOP_BYTES = 7;
+    public static final int BUNDLE_PACKETS = 8;
+    public static final int BUNDLE_BYTES = 9;
+    public static final int TICK_NANOS = 10;
+    public static final int METRIC_COUNT = 11;
+
+    /**
+     * 每个指标在输出和 JSON 快照中使用的名称，按指标下标排列。
+     */
+    public static final String[] METRIC_NAMES = {
+            "voicesStarted", "voicesStopped",
+            "startEvents", "startBytes", "volumeEvents", "volumeBytes", "stopEvents", "stopBytes",
+            "bundlePackets", "bundleBytes", "tickNanos"
+    };
+
+    public static final int HISTORY_SECONDS = 300;
+    public static final int TICKS_PER_SECOND = 20;
+
+    private final long[] current = new long[METRIC_COUNT];
+    // history[second * METRIC_COUNT + metric]
+    private final long[] history = new long[HISTORY_SECONDS * METRIC_COUNT];
+    private int head;
+    private int filled;
+    private int ticksInSecond;
+
+    public void add(int metric, long amount) {
+        current[metric] += amount;
+    }
+
+    public void increment(int metric) {
+        current[metric]++;
+    }
+
+    /**
+     * 在每刻结束时调用，满 20 刻时把当前桶存入历史。
+     */
+    public void endTick() {
+        if (++ticksInSecond >= TICKS_PER_SECOND) {
+            rollSecond();
+        }
+    }
+
+    /**
+     * 把当前秒的计数存入环形历史并清空当前桶。
+     */
+    public void rollSecond() {
+        System.arraycopy(current, 0, history, head * METRIC_COUNT, METRIC_COUNT);
+        Arrays.fill(current, 0L);
+        head = (head + 1) % HISTORY_SECONDS;
+        filled = Math.min(filled + 1, HISTORY_SECONDS);
+        ticksInSecond = 0;
+    }
+
+    /**
+     * 计算最近若干秒内某个指标的每秒平均值。历史不足时按已有的秒数平均。
+     *
+     * @param metric  指标下标。
+     * @param seconds 时间窗口 (秒)，最多 {@link #HISTORY_SECONDS}。
+     * @return 每秒平均值，没有历史时返回 0。
+     */
+    public double perSecond(int metric, int seconds) {
+        int count = Math.min(seconds, filled);
+        if (count == 0) {
+            return 0.0;
+        }
+        long sum = 0;
+        for (int i = 1; i <= count; i++) {
+            int second = (head - i + HISTORY_SECONDS) % HISTORY_SECONDS;
+            sum += history[second * METRIC_COUNT + metric];
+        }
+        return (double) sum / count;
+    }
+
+    /**
+     * 获取可用的历史秒数。
+     */
+    public int historySeconds() {
+        return filled;
+    }
+}
@@ -0,0 +1,316 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import java.util.Arrays;
+
+/**
+ * 以"数组结构" (struct-of-arrays) 形式保存所有正在播放的声音 (voice) 的服务器端状态。
+ *
+ * 每个声音占用一个槽位 (slot)，其包络状态保存在按槽位索引的基本类型数组中，
+ * 正在使用的槽位另外记录在一个紧凑的活动列表里，因此遍历时不需要分配任何对象。
+ *
+ * 声音池不会逐刻推进每个声音：池只维护一个时钟 ({@link #advanceClock()})，
+ * 每个声音记录开始时的时钟值，当前刻和当前音量在需要时按 {@link SoundEnvelope} 即时计算。
+ * 声音的结束时间由 {@link #expiryTick(int)} 给出，由调用者安排在那一刻唤醒。
+ *
+ * 声音通过一个紧凑的整数句柄 (handle) 对外标识：高位是槽位，低 {@link #GENERATION_BITS} 位是代数 (generation)。
+ * 槽位被释放后代数加一，旧句柄因此自动失效。句柄以 VarInt 形式写入数据包，通常只占 2-3 个字节。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class VoicePool {
+    public static final int GENERATION_BITS = 8;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+    private static final int MAX_CAPACITY = 1 << (31 - GENERATION_BITS);
+
+    /**
+     * 无效句柄，任何已分配的声音都不会使用它。
+     */
+    public static final int INVALID_HANDLE = 0;
+
+    private int capacity;
+
+    // 每个槽位的状态
+    private int[] generation;
+    private long[] pos;
+    private int[] instrumentId;
+    private int[] note;
+    private int[] velocity;
+    private int[] sustainTicks;
+    private int[] fadeInTicks;
+    private int[] fadeOutTicks;
+    // 声音开始时的时钟值
+    private long[] startClock;
+    // 强制淡出开始时声音所处的包络刻，-1 表示没有强制淡出
+    private int[] forcedFadeOutStartTick;
+    private float[] volumeOnForcedFadeOut;
+    // 最近一次发送给客户端的量化音量关键帧，-1 表示客户端仍按本地包络计算
+    private int[] lastSentVolume;
+    // 声音结束时的唤醒句柄，由调用者管理
+    private int[] wakeHandle;
+
+    private long clock;
+
+    // 活动槽位的紧凑列表，以及每个槽位在列表中的下标 (-1 表示空闲)
+    private int[] activeSlots;
+    private int[] activeIndex;
+    private int activeCount;
+
+    // 空闲槽位栈
+    private int[] freeSlots;
+    private int freeCount;
+
+    public VoicePool(int initialCapacity) {
+        this.capacity = 0;
+        this.generation = new int[0];
+        this.pos = new long[0];
+        this.instrumentId = new int[0];
+        this.note = new int[0];
+        this.velocity = new int[0];
+        this.sustainTicks = new int[0];
+        this.fadeInTicks = new int[0];
+        this.fadeOutTicks = new int[0];
+        this.startClock = new long[0];
+        this.forcedFadeOutStartTick = new int[0];
+        this.volumeOnForcedFadeOut = new float[0];
+        this.lastSentVolume = new int[0];
+        this.wakeHandle = new int[0];
+        this.activeSlots = new int[0];
+        this.activeIndex = new int[0];
+        this.freeSlots = new int[0];
+        grow(Math.max(16, initialCapacity));
+    }
+
+    /**
+     * 分配一个新的声音槽位并初始化其包络。
+     *
+     * @return 新声音的句柄。
+     */
+    public int allocate(long packedPos, int instrumentId, int note, int velocity, int sustainTicks, int fadeInTicks,
+            int fadeOutTicks) {
+        if (freeCount == 0) {
+            grow(capacity * 2);
+        }
+        int slot = freeSlots[--freeCount];
+        this.pos[slot] = packedPos;
+        this.instrumentId[slot] = instrumentId;
+        this.note[slot] = note;
+        this.velocity[slot] = velocity;
+        this.sustainTicks[slot] = sustainTicks;
+        this.fadeInTicks[slot] = fadeInTicks;
+        this.fadeOutTicks[slot] = fadeOutTicks;
+        this.startClock[slot] = clock;
+        this.forcedFadeOutStartTick[slot] = -1;
+        this.volumeOnForcedFadeOut[slot] = 1.0f;
+        this.lastSentVolume[slot] = -1;
+        this.wakeHandle[slot] = 0;
+
+        this.activeIndex[slot] = activeCount;
+        this.activeSlots[activeCount++] = slot;
+        return handleOf(slot);
+    }
+
+    /**
+     * 释放一个槽位，使其句柄失效。
+     */
+    public void release(int slot) {
+        int index = activeIndex[slot];
+        if (index < 0) {
+            return;
+        }
+        // 用列表末尾的槽位填补空位，保持活动列表紧凑
+        int lastSlot = activeSlots[--activeCount];
+        activeSlots[index] = lastSlot;
+        activeIndex[lastSlot] = index;
+        activeIndex[slot] = -1;
+
+        generation[slot] = nextGeneration(generation[slot]);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * 把时钟推进一刻。所有声音的当前刻随之加一，不需要逐个更新。
+     */
+    public void advanceClock() {
+        clock++;
+    }
+
+    /**
+     * 计算声音的生命周期在哪一个包络刻结束，逻辑与客户端的 {@link SoundEnvelope} 计算保持一致。
+     *
+     * @return 结束时的包络刻，声音不限时长时返回 -1。
+     */
+    public int expiryTick(int slot) {
+        int forcedStart = forcedFadeOutStartTick[slot];
+        if (forcedStart >= 0) {
+            return forcedStart + Math.max(0, fadeOutTicks[slot]);
+        }
+        int sustain = sustainTicks[slot];
+        return sustain > 0 ? sustain + 1 : -1;
+    }
+
+    /**
+     * 把一个刚分配的槽位快进到包络中的指定刻，用于从存档中恢复声音。
+     */
+    public void restoreProgress(int slot, int tick) {
+        startClock[slot] = clock - Math.max(0, tick);
+    }
+
+    /**
+     * 强制开始淡出过程，通常在音符被外部事件（如方块被破坏）中断时调用。
+     *
+     * @return 如果声音没有淡出时长、应当立即停止，则返回 true。
+     */
+    public boolean startFadeOut(int slot) {
+        if (forcedFadeOutStartTick[slot] < 0) {
+            volumeOnForcedFadeOut[slot] = currentVolume(slot);
+            forcedFadeOutStartTick[slot] = currentTick(slot);
+        }
+        return fadeOutTicks[slot] <= 0;
+    }
+
+    /**
+     * 记录一个将要发送的音量关键帧。
+     *
+     * @param quantizedVolume 量化后的目标音量。
+     * @return 如果与上一次发送的关键帧相同、无需再次发送，则返回 false。
+     */
+    public boolean markVolumeSent(int slot, int quantizedVolume) {
+        if (lastSentVolume[slot] == quantizedVolume) {
+            return false;
+        }
+        lastSentVolume[slot] = quantizedVolume;
+        return true;
+    }
+
+    public int handleOf(int slot) {
+        return (slot << GENERATION_BITS) | generation[slot];
+    }
+
+    public static int slotOf(int handle) {
+        return handle >>> GENERATION_BITS;
+    }
+
+    /**
+     * 检查句柄是否仍然指向一个正在播放的声音。
+     */
+    public boolean isLive(int handle) {
+        int slot = slotOf(handle);
+        return slot < capacity && activeIndex[slot] >= 0 && handleOf(slot) == handle;
+    }
+
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * 获取活动列表中第 index 个声音的槽位。
+     * 在倒序遍历时释放当前槽位是安全的。
+     */
+    public int activeSlot(int index) {
+        return activeSlots[index];
+    }
+
+    public long pos(int slot) {
+        return pos[slot];
+    }
+
+    public int instrumentId(int slot) {
+        return instrumentId[slot];
+    }
+
+    public int note(int slot) {
+        return note[slot];
+    }
+
+    public int velocity(int slot) {
+        return velocity[slot];
+    }
+
+    public int sustainTicks(int slot) {
+        return sustainTicks[slot];
+    }
+
+    public int fadeInTicks(int slot) {
+        return fadeInTicks[slot];
+    }
+
+    public int fadeOutTicks(int slot) {
+        return fadeOutTicks[slot];
+    }
+
+    public int currentTick(int slot) {
+        return (int) Math.min(Integer.MAX_VALUE, clock - startClock[slot]);
+    }
+
+    /**
+     * 按包络即时计算声音当前的音量。
+     */
+    public float currentVolume(int slot) {
+        int tick = currentTick(slot);
+        int forcedStart = forcedFadeOutStartTick[slot];
+        if (forcedStart >= 0) {
+            return SoundEnvelope.rampVolume(volumeOnForcedFadeOut[slot], 0.0f, fadeOutTicks[slot],
+                    tick - forcedStart);
+        }
+        if (tick <= 0) {
+            return SoundEnvelope.initialVolume(velocity[slot], sustainTicks[slot], fadeInTicks[slot],
+                    fadeOutTicks[slot], 0);
+        }
+        return SoundEnvelope.volumeAt(velocity[slot], sustainTicks[slot], fadeInTicks[slot], fadeOutTicks[slot],
+                tick);
+    }
+
+    public int wakeHandle(int slot) {
+        return wakeHandle[slot];
+    }
+
+    public void setWakeHandle(int slot, int handle) {
+        wakeHandle[slot] = handle;
+    }
+
+    public boolean isFadingOutForced(int slot) {
+        return forcedFadeOutStartTick[slot] >= 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static int nextGeneration(int generation) {
+        // 代数从 1 开始循环，保证句柄永远不等于 INVALID_HANDLE
+        int next = (generation + 1) & GENERATION_MASK;
+        return next == 0 ? 1 : next;
+    }
+
+    private void grow(int newCapacity) {
+        newCapacity = Math.min(newCapacity, MAX_CAPACITY);
+        if (newCapacity <= capacity) {
+            throw new IllegalStateException("Voice pool is full (" + capacity + " voices)");
+        }
+        int oldCapacity = capacity;
+        generation = Arrays.copyOf(generation, newCapacity);
+        pos = Arrays.copyOf(pos, newCapacity);
+        instrumentId = Arrays.copyOf(instrumentId, newCapacity);
+        note = Arrays.copyOf(note, newCapacity);
+        velocity = Arrays.copyOf(velocity, newCapacity);
+        sustainTicks = Arrays.copyOf(sustainTicks, newCapacity);
+        fadeInTicks = Arrays.copyOf(fadeInTicks, newCapacity);
+        fadeOutTicks = Arrays.copyOf(fadeOutTicks, newCapacity);
+        startClock = Arrays.copyOf(startClock, newCapacity);
+        forcedFadeOutStartTick = Arrays.copyOf(forcedFadeOutStartTick, newCapacity);
+        volumeOnForcedFadeOut = Arrays.copyOf(volumeOnForcedFadeOut, newCapacity);
+        lastSentVolume = Arrays.copyOf(lastSentVolume, newCapacity);
+        wakeHandle = Arrays.copyOf(wakeHandle, newCapacity);
+        activeSlots = Arrays.copyOf(activeSlots, newCapacity);
+        activeIndex = Arrays.copyOf(activeIndex, newCapacity);
+        freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+
+        // 新槽位按倒序压栈，使低编号槽位优先被使用 (句柄更短)
+        for (int slot = newCapacity - 1; slot >= oldCapacity; slot--) {
+            generation[slot] = 1;
+            activeIndex[slot] = -1;
+            freeSlots[freeCount++] = slot;
+        }
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,100 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 按方块位置索引正在播放的声音槽位，用于按位置快速查找声音。
+ *
+ * 键通常是 {@link BlockPos#asLong()} 打包后的位置，值是该位置上第一个槽位；
+ * 也适用于其他打包的 long 键 (例如区块区段坐标)。
+ * 同一位置上的多个槽位通过按槽位索引的 next/prev 数组串成一个侵入式双向链表，
+ * 因此添加和删除都是 O(1) 且不分配对象。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class VoicePositionIndex {
+    private static final int NONE = -1;
+
+    private final Long2IntOpenHashMap heads = new Long2IntOpenHashMap();
+    private final Long2IntOpenHashMap counts = new Long2IntOpenHashMap();
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+
+    public VoicePositionIndex() {
+        heads.defaultReturnValue(NONE);
+    }
+
+    /**
+     * 把槽位加入指定位置的链表。
+     */
+    public void add(int slot, long packedPos) {
+        ensureCapacity(slot + 1);
+        int head = heads.get(packedPos);
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        heads.put(packedPos, slot);
+        counts.addTo(packedPos, 1);
+    }
+
+    /**
+     * 把槽位从指定位置的链表中移除。
+     */
+    public void remove(int slot, long packedPos) {
+        int before = prev[slot];
+        int after = next[slot];
+        if (before != NONE) {
+            next[before] = after;
+        } else if (after != NONE) {
+            heads.put(packedPos, after);
+        } else {
+            heads.remove(packedPos);
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        next[slot] = NONE;
+        prev[slot] = NONE;
+        if (counts.addTo(packedPos, -1) <= 1) {
+            counts.remove(packedPos);
+        }
+    }
+
+    /**
+     * 获取指定键上的槽位数量。
+     */
+    public int countAt(long packedPos) {
+        return counts.get(packedPos);
+    }
+
+    /**
+     * 遍历指定位置上的所有槽位，复杂度 O(1 + 该位置的声音数)。
+     * 回调中可以安全地移除当前槽位。
+     */
+    public void forEachAt(long packedPos, IntConsumer action) {
+        int slot = heads.get(packedPos);
+        while (slot != NONE) {
+            int following = next[slot];
+            action.accept(slot);
+            slot = following;
+        }
+    }
+
+    public boolean isEmpty() {
+        return heads.isEmpty();
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > next.length) {
+            int newLength = Math.max(size, Math.max(16, next.length * 2));
+            next = Arrays.copyOf(next, newLength);
+            prev = Arrays.copyOf(prev, newLength);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.atemukesu.extendednoteblock.sound;
+
+/**
+ * 声音数量超过上限时，选择被抢占 (steal) 声音的策略。
+ * 被抢占的声音会通过正常的强制淡出流程结束，而不是被客户端直接丢弃。
+ */
+public enum VoiceStealPolicy {
+    /**
+     * 抢占播放时间最长的声音。
+     */
+    OLDEST,
+    /**
+     * 抢占当前音量最小的声音。
+     */
+    QUIETEST,
+    /**
+     * 抢占力度最小的声音。
+     */
+    LOWEST_VELOCITY;
+
+    /**
+     * 计算一个声音作为被抢占对象的优先级，分数越低越先被抢占。
+     *
+     * @param voices 声音池。
+     * @param slot   声音槽位。
+     * @return 抢占分数。
+     */
+    public float score(VoicePool voices, int slot) {
+        return switch (this) {
+            case OLDEST -> -voices.currentTick(slot);
+            case QUIETEST -> voices.currentVolume(slot);
+            // 力度相同时优先抢占较老的声音
+            case LOWEST_VELOCITY -> voices.velocity(slot) - voices.currentTick(slot) / 1_000_000.0f;
+        };
+    }
+}
@@ -0,0 +1,480 @@
+package com.atemukesu.extendednoteblock.sound;
+
+import com.atemukesu.extendednoteblock.config.ServerConfig;
+import com.atemukesu.extendednoteblock.config.ServerConfigManager;
+import com.atemukesu.extendednoteblock.network.ModMessages;
+import com.atemukesu.extendednoteblock.util.SectionKeys;
+import com.atemukesu.extendednoteblock.util.TimingWheel;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.List;
+
+/**
+ * 单个 {@link ServerWorld} 的声音引擎。
+ *
+ * 每个世界拥有独立的 {@link VoicePool} 和 {@link VoicePositionIndex}，在该世界的刻结束时更新，
+ * 并在世界卸载时被整体丢弃，因此不会有声音在维度卸载后继续运行或让世界驻留在内存中。
+ *
+ * 声音不会被逐刻轮询：音量变化由客户端本地计算，服务器只在声音结束的那一刻通过 {@link TimingWheel} 唤醒它，
+ * 因此处于持续阶段的声音每刻没有任何开销，每刻的耗时只与当刻开始或结束的声音数量有关。
+ * 实例由 {@link ServerSoundManager} 创建和管理。
+ *
+ * 开始新声音前会检查复音上限 (每个区块区段、每个收听玩家以及全局)，
+ * 超出上限时按 {@link VoiceStealPolicy} 选择一个声音进行强制淡出。
+ *
+ * 声音事件只发送给可听半径内的玩家 (见 {@link AudienceTracker})；
+ * 在声音播放中途走进可听范围的玩家会收到带有已播放刻数的开始事件。
+ *
+ * 此类不是线程安全的，只能在服务器主线程上使用。
+ */
+public class WorldSoundEngine {
+    private static final int INITIAL_VOICE_CAPACITY = 256;
+    private static final int NO_VOICE = -1;
+    // 每隔多少刻检查一次是否有玩家中途进入了正在播放的声音的可听范围
+    private static final int LATE_LISTENER_SCAN_INTERVAL = 4;
+
+    private final ServerWorld world;
+    private final VoicePool voices = new VoicePool(INITIAL_VOICE_CAPACITY);
+    private final VoicePositionIndex positionIndex = new VoicePositionIndex();
+    // 声音结束时的唤醒事件，载荷为声音句柄
+    private final TimingWheel wakeups = new TimingWheel();
+    private final AudienceTracker audience;
+    private final SoundStats stats = new SoundStats();
+    // 按区块区段索引尚未强制淡出的声音，用于复音上限的计数和抢占
+    private final VoicePositionIndex sectionIndex = new VoicePositionIndex();
+    private int sustainingVoiceCount;
+    // 本刻内已经计算过的玩家可听范围内的声音数，每刻结束时清空
+    private final Object2IntOpenHashMap<ServerPlayerEntity> listenerVoiceCounts = new Object2IntOpenHashMap<>();
+
+    WorldSoundEngine(ServerWorld world) {
+        this.world = world;
+        this.audience = new AudienceTracker(world);
+    }
+
+    /**
+     * 开始播放一个声音，并把完整包络发送给可听范围内的玩家。
+     *
+     * @return 新声音的句柄。
+     */
+    public int playSound(BlockPos pos, int instrumentId, int note, int velocity, int sustainTicks, int fadeInTicks,
+            int fadeOutTicks) {
+        int handle = startVoice(pos, instrumentId, note, velocity, sustainTicks, fadeInTicks, fadeOutTicks);
+        // 一次性发送完整包络，之后由客户端本地计算音量
+        List<ServerPlayerEntity> listeners = audience.listenersNear(pos, audibleRadius());
+        for (ServerPlayerEntity player : listeners) {
+            audience.markHeard(player, handle);
+        }
+        ModMessages.sendStartSoundToClients(stats, listeners, pos, handle, instrumentId, note, velocity,
+                sustainTicks, fadeInTicks, fadeOutTicks, 0);
+        return handle;
+    }
+
+    /**
+     * 在同一位置同时开始多个共享乐器和包络的声音 (和弦)，每个声音单独计入复音上限，
+     * 但对每个收听玩家只发送一个和弦开始事件。
+     *
+     * 抢占在分配任何声音之前为整个和弦一次决定，所以和弦中先开始的声音不会被后面的声音抢占。
+     *
+     * @param notes      每个声音的音符。
+     * @param velocities 每个声音的力度。
+     * @param count      声音数，数组中只有前 count 个元素有效。
+     */
+    public void playChord(BlockPos pos, int instrumentId, int[] notes, int[] velocities, int count,
+            int sustainTicks, int fadeInTicks, int fadeOutTicks) {
+        if (count <= 0) {
+            return;
+        }
+        long packedPos = pos.asLong();
+        long sectionKey = SectionKeys.ofBlock(packedPos);
+        reserveVoices(pos, sectionKey, count);
+        int[] handles = new int[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = allocateVoice(packedPos, sectionKey, instrumentId, notes[i], velocities[i], sustainTicks,
+                    fadeInTicks, fadeOutTicks);
+        }
+        List<ServerPlayerEntity> listeners = audience.listenersNear(pos, audibleRadius());
+        for (ServerPlayerEntity player : listeners) {
+            for (int handle : handles) {
+                audience.markHeard(player, handle);
+            }
+        }
+        ModMessages.sendChordStartToClients(stats, listeners, pos, handles, notes, velocities, count,
+                instrumentId, sustainTicks, fadeInTicks, fadeOutTicks, 0);
+    }
+
+    /**
+     * 检查复音上限并分配一个新声音，不发送任何数据包。
+     */
+    private int startVoice(BlockPos pos, int instrumentId, int note, int velocity, int sustainTicks,
+            int fadeInTicks, int fadeOutTicks) {
+        long packedPos = pos.asLong();
+        long sectionKey = SectionKeys.ofBlock(packedPos);
+        reserveVoices(pos, sectionKey, 1);
+        return allocateVoice(packedPos, sectionKey, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                fadeOutTicks);
+    }
+
+    /**
+     * 为即将在同一位置开始的 count 个声音检查所有复音上限，必要时抢占已有的声音。
+     */
+    private void reserveVoices(BlockPos pos, long sectionKey, int count) {
+        enforceLocalLimits(pos, sectionKey, count);
+        ServerSoundManager.enforceGlobalLimit(count);
+    }
+
+    /**
+     * 分配一个新声音，不检查复音上限，调用者应先调用 {@link #reserveVoices}。
+     */
+    private int allocateVoice(long packedPos, long sectionKey, int instrumentId, int note, int velocity,
+            int sustainTicks, int fadeInTicks, int fadeOutTicks) {
+        int handle = voices.allocate(packedPos, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                fadeOutTicks);
+        int slot = VoicePool.slotOf(handle);
+        scheduleExpiry(slot);
+        positionIndex.add(slot, packedPos);
+        sectionIndex.add(slot, sectionKey);
+        sustainingVoiceCount++;
+        adjustListenerCounts(sectionKey, 1);
+        stats.increment(SoundStats.VOICES_STARTED);
+        return handle;
+    }
+
+    /**
+     * 从存档中恢复一个尚未结束的声音，不检查复音上限，也不立即发送数据包：
+     * 恢复的声音没有任何玩家听过，会在下一次补发检查时按已播放的刻数发送给可听范围内的玩家。
+     */
+    void restoreVoice(long packedPos, int instrumentId, int note, int velocity, int sustainTicks, int fadeInTicks,
+            int fadeOutTicks, int elapsedTicks) {
+        if (SoundEnvelope.isExpired(sustainTicks, elapsedTicks + 1)) {
+            return;
+        }
+        int handle = voices.allocate(packedPos, instrumentId, note, velocity, sustainTicks, fadeInTicks,
+                fadeOutTicks);
+        int slot = VoicePool.slotOf(handle);
+        voices.restoreProgress(slot, elapsedTicks);
+        scheduleExpiry(slot);
+        positionIndex.add(slot, packedPos);
+        sectionIndex.add(slot, SectionKeys.ofBlock(packedPos));
+        sustainingVoiceCount++;
+    }
+
+    /**
+     * 遍历所有尚未强制淡出的声音，用于保存状态。正在淡出的声音很快就会结束，不需要保存。
+     */
+    void forEachSustainingVoice(VoiceVisitor visitor) {
+        for (int i = 0; i < voices.activeCount(); i++) {
+            int slot = voices.activeSlot(i);
+            if (!voices.isFadingOutForced(slot)) {
+                visitor.visit(voices.pos(slot), voices.instrumentId(slot), voices.note(slot), voices.velocity(slot),
+                        voices.sustainTicks(slot), voices.fadeInTicks(slot), voices.fadeOutTicks(slot),
+                        voices.currentTick(slot));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface VoiceVisitor {
+        void visit(long packedPos, int instrumentId, int note, int velocity, int sustainTicks, int fadeInTicks,
+                int fadeOutTicks, int elapsedTicks);
+    }
+
+    /**
+     * 让指定位置上的所有声音开始淡出。
+     */
+    public void stopSound(BlockPos pos) {
+        positionIndex.forEachAt(pos.asLong(), this::fadeOut);
+    }
+
+    /**
+     * 强制淡出一个声音。已经在强制淡出中的声音不会受影响。
+     */
+    void fadeOut(int slot) {
+        if (voices.isFadingOutForced(slot)) {
+            return;
+        }
+        int handle = voices.handleOf(slot);
+        long packedPos = voices.pos(slot);
+        BlockPos pos = BlockPos.fromLong(packedPos);
+        long sectionKey = SectionKeys.ofBlock(packedPos);
+        sectionIndex.remove(slot, sectionKey);
+        sustainingVoiceCount--;
+        adjustListenerCounts(sectionKey, -1);
+        // 没有淡出时长，或者当前音量量化后已经是 0 时，斜坡不会产生任何可闻变化，直接停止
+        if (voices.startFadeOut(slot) || SoundEnvelope.quantizeVolume(voices.currentVolume(slot)) == 0) {
+            ModMessages.sendStopSoundToClients(stats, audience.audienceOf(handle), pos, handle);
+            release(slot);
+        } else {
+            // 声音改为在淡出结束时唤醒
+            scheduleExpiry(slot);
+            // 让客户端在淡出时长内把音量线性降到 0
+            sendVolumeKeyframe(slot, pos, 0.0f, voices.fadeOutTicks(slot));
+        }
+    }
+
+    /**
+     * 发送一个音量关键帧，客户端在 rampTicks 内从当前音量线性插值到目标音量。
+     * 目标音量按字节量化，与上一次发送的关键帧相同时不发送。
+     */
+    private void sendVolumeKeyframe(int slot, BlockPos pos, float targetVolume, int rampTicks) {
+        int quantized = SoundEnvelope.quantizeVolume(targetVolume);
+        if (voices.markVolumeSent(slot, quantized)) {
+            int handle = voices.handleOf(slot);
+            ModMessages.sendUpdateVolumeToClients(stats, audience.audienceOf(handle), pos, handle, quantized,
+                    rampTicks);
+        }
+    }
+
+    /**
+     * 在世界的每个刻结束时调用，推进声音池的时钟并结束在这一刻到期的声音。
+     */
+    void tick() {
+        voices.advanceClock();
+        // 客户端按同样的包络自行结束声音，这里无需再发送停止数据包
+        wakeups.advance((wakeHandle, tag, payload) -> expire((int) payload));
+        if (world.getTime() % LATE_LISTENER_SCAN_INTERVAL == 0) {
+            startForLateListeners();
+        }
+        listenerVoiceCounts.clear();
+        audience.beginTick();
+    }
+
+    /**
+     * 给中途走进可听范围的玩家补发开始事件，起始刻为声音已经播放的刻数。
+     * 只检查尚未强制淡出的声音，正在淡出的声音很快就会结束。
+     */
+    private void startForLateListeners() {
+        if (sustainingVoiceCount == 0) {
+            return;
+        }
+        int radius = audibleRadius();
+        int sectionRadius = AudienceTracker.sectionRadius(radius);
+        double maxDistance = (double) radius * radius;
+        for (var entry : audience.playerGrid().long2ObjectEntrySet()) {
+            long playerSection = entry.getLongKey();
+            int centerX = ChunkSectionPos.unpackX(playerSection);
+            int centerY = ChunkSectionPos.unpackY(playerSection);
+            int centerZ = ChunkSectionPos.unpackZ(playerSection);
+            for (ServerPlayerEntity player : entry.getValue()) {
+                for (int x = centerX - sectionRadius; x <= centerX + sectionRadius; x++) {
+                    for (int y = centerY - sectionRadius; y <= centerY + sectionRadius; y++) {
+                        for (int z = centerZ - sectionRadius; z <= centerZ + sectionRadius; z++) {
+                            sectionIndex.forEachAt(ChunkSectionPos.asLong(x, y, z), slot -> {
+                                int handle = voices.handleOf(slot);
+                                long packedPos = voices.pos(slot);
+                                if (audience.hasHeard(player, handle) || player.squaredDistanceTo(
+                                        BlockPos.unpackLongX(packedPos) + 0.5,
+                                        BlockPos.unpackLongY(packedPos) + 0.5,
+                                        BlockPos.unpackLongZ(packedPos) + 0.5) > maxDistance) {
+                                    return;
+                                }
+                                audience.markHeard(player, handle);
+                                ModMessages.sendStartSoundToClients(stats, List.of(player),
+                                        BlockPos.fromLong(packedPos), handle, voices.instrumentId(slot),
+                                        voices.note(slot), voices.velocity(slot), voices.sustainTicks(slot),
+                                        voices.fadeInTicks(slot), voices.fadeOutTicks(slot),
+                                        voices.currentTick(slot));
+                            });
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 声音的生命周期自然结束。
+     */
+    private void expire(int handle) {
+        if (!voices.isLive(handle)) {
+            return;
+        }
+        int slot = VoicePool.slotOf(handle);
+        if (!voices.isFadingOutForced(slot)) {
+            sectionIndex.remove(slot, SectionKeys.ofBlock(voices.pos(slot)));
+            sustainingVoiceCount--;
+        }
+        release(slot);
+    }
+
+    /**
+     * 按声音当前的包络阶段安排结束时的唤醒，替换之前安排的唤醒。
+     */
+    private void scheduleExpiry(int slot) {
+        wakeups.cancel(voices.wakeHandle(slot));
+        int expiryTick = voices.expiryTick(slot);
+        if (expiryTick < 0) {
+            // 不限时长的声音只会被强制淡出结束
+            voices.setWakeHandle(slot, TimingWheel.INVALID_HANDLE);
+            return;
+        }
+        int delay = expiryTick - voices.currentTick(slot);
+        voices.setWakeHandle(slot, wakeups.schedule(delay, 0, voices.handleOf(slot)));
+    }
+
+    private void release(int slot) {
+        wakeups.cancel(voices.wakeHandle(slot));
+        audience.forget(voices.handleOf(slot));
+        positionIndex.remove(slot, voices.pos(slot));
+        voices.release(slot);
+        stats.increment(SoundStats.VOICES_STOPPED);
+    }
+
+    /**
+     * 检查区块区段和收听玩家的复音上限，必要时抢占声音为 needed 个新声音腾出位置。
+     */
+    private void enforceLocalLimits(BlockPos pos, long sectionKey, int needed) {
+        ServerConfig config = ServerConfigManager.getConfig();
+        VoiceStealPolicy policy = policy(config);
+
+        int sectionLimit = config.maxVoicesPerChunkSection;
+        if (sectionLimit > 0) {
+            while (sectionIndex.countAt(sectionKey) + needed > sectionLimit) {
+                int victim = findVictimInSection(sectionKey, policy, NO_VOICE);
+                if (victim == NO_VOICE) {
+                    break;
+                }
+                fadeOut(victim);
+            }
+        }
+
+        int listenerLimit = config.maxVoicesPerListener;
+        if (listenerLimit > 0) {
+            int radius = AudienceTracker.sectionRadius(audibleRadius());
+            for (ServerPlayerEntity player : audience.listenersNear(pos, audibleRadius())) {
+                while (listenerVoiceCount(player, radius) + needed > listenerLimit) {
+                    int victim = findVictimNear(player, radius, policy);
+                    if (victim == NO_VOICE) {
+                        break;
+                    }
+                    fadeOut(victim);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在本世界所有尚未淡出的声音中选出最应该被抢占的一个。
+     *
+     * @return 槽位，没有可抢占的声音时返回 -1。
+     */
+    int findVictim(VoiceStealPolicy policy) {
+        int best = NO_VOICE;
+        float bestScore = Float.MAX_VALUE;
+        for (int i = 0; i < voices.activeCount(); i++) {
+            int slot = voices.activeSlot(i);
+            if (voices.isFadingOutForced(slot)) {
+                continue;
+            }
+            float score = policy.score(voices, slot);
+            if (score < bestScore) {
+                bestScore = score;
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+    float victimScore(VoiceStealPolicy policy, int slot) {
+        return policy.score(voices, slot);
+    }
+
+    private int findVictimInSection(long sectionKey, VoiceStealPolicy policy, int currentBest) {
+        int[] best = { currentBest };
+        sectionIndex.forEachAt(sectionKey, slot -> {
+            if (best[0] == NO_VOICE || policy.score(voices, slot) < policy.score(voices, best[0])) {
+                best[0] = slot;
+            }
+        });
+        return best[0];
+    }
+
+    private int findVictimNear(ServerPlayerEntity player, int radius, VoiceStealPolicy policy) {
+        int centerX = ChunkSectionPos.getSectionCoord(player.getBlockX());
+        int centerY = ChunkSectionPos.getSectionCoord(player.getBlockY());
+        int centerZ = ChunkSectionPos.getSectionCoord(player.getBlockZ());
+        int best = NO_VOICE;
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int y = centerY - radius; y <= centerY + radius; y++) {
+                for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                    best = findVictimInSection(ChunkSectionPos.asLong(x, y, z), policy, best);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 获取玩家可听范围内尚未淡出的声音数。结果在本刻内缓存，并随声音的开始和淡出增量更新。
+     */
+    private int listenerVoiceCount(ServerPlayerEntity player, int radius) {
+        if (listenerVoiceCounts.containsKey(player)) {
+            return listenerVoiceCounts.getInt(player);
+        }
+        int centerX = ChunkSectionPos.getSectionCoord(player.getBlockX());
+        int centerY = ChunkSectionPos.getSectionCoord(player.getBlockY());
+        int centerZ = ChunkSectionPos.getSectionCoord(player.getBlockZ());
+        int count = 0;
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int y = centerY - radius; y <= centerY + radius; y++) {
+                for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                    count += sectionIndex.countAt(ChunkSectionPos.asLong(x, y, z));
+                }
+            }
+        }
+        listenerVoiceCounts.put(player, count);
+        return count;
+    }
+
+    private void adjustListenerCounts(long sectionKey, int delta) {
+        if (listenerVoiceCounts.isEmpty()) {
+            return;
+        }
+        int radius = AudienceTracker.sectionRadius(audibleRadius());
+        int sectionX = ChunkSectionPos.unpackX(sectionKey);
+        int sectionY = ChunkSectionPos.unpackY(sectionKey);
+        int sectionZ = ChunkSectionPos.unpackZ(sectionKey);
+        for (var entry : listenerVoiceCounts.object2IntEntrySet()) {
+            ServerPlayerEntity player = entry.getKey();
+            if (Math.abs(ChunkSectionPos.getSectionCoord(player.getBlockX()) - sectionX) <= radius
+                    && Math.abs(ChunkSectionPos.getSectionCoord(player.getBlockY()) - sectionY) <= radius
+                    && Math.abs(ChunkSectionPos.getSectionCoord(player.getBlockZ()) - sectionZ) <= radius) {
+                entry.setValue(entry.getIntValue() + delta);
+            }
+        }
+    }
+
+    private static int audibleRadius() {
+        return Math.max(1, ServerConfigManager.getConfig().audibleRadius);
+    }
+
+    static VoiceStealPolicy policy(ServerConfig config) {
+        return config.voiceStealPolicy != null ? config.voiceStealPolicy : VoiceStealPolicy.OLDEST;
+    }
+
+    public ServerWorld getWorld() {
+        return world;
+    }
+
+    public int getActiveVoiceCount() {
+        return voices.activeCount();
+    }
+
+    /**
+     * 获取此世界的统计，包括声音数、本世界发出的声音事件的网络流量和每刻耗时
+     * (声音引擎的更新以及 {@link com.atemukesu.extendednoteblock.block.NoteTriggerQueue} 的触发处理)。
+     */
+    public SoundStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 获取尚未进入强制淡出的声音数量，用于全局复音上限。
+     */
+    public int getSustainingVoiceCount() {
+        return sustainingVoiceCount;
+    }
+}
@@ -0,0 +1,25 @@
+package com.atemukesu.extendednoteblock.util;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+/**
+ * 区块区段键的计算，声音引擎的区段索引和触发队列的排序共用。
+ *
+ * 区段键与 {@link ChunkSectionPos#asLong(int, int, int)} 的结果相同，可以用 {@link ChunkSectionPos#unpackX(long)}
+ * 等方法解包。
+ */
+public final class SectionKeys {
+    private SectionKeys() {
+    }
+
+    /**
+     * 获取打包的方块位置 ({@link BlockPos#asLong()}) 所在区段的键。
+     */
+    public static long ofBlock(long packedPos) {
+        return ChunkSectionPos.asLong(
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongX(packedPos)),
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongY(packedPos)),
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongZ(packedPos)));
+    }
+}
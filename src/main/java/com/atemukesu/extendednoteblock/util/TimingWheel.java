@@ -0,0 +1,267 @@
+package com.atemukesu.extendednoteblock.util;
+
+import java.util.Arrays;
+
+/**
+ * 以游戏刻为单位的分层时间轮 (hierarchical timing wheel)。
+ *
+ * 时间轮有 {@link #LEVELS} 层，每层 {@link #SLOTS_PER_LEVEL} 个桶：第 0 层的每个桶代表 1 刻，
+ * 第 n 层的每个桶代表 64^n 刻。条目按距离到期的刻数放入对应层的桶中，
+ * 每当低层转完一圈，就把高层当前桶中的条目重新分配到更低的层 (cascade)。
+ * 添加、取消和到期的均摊复杂度都是 O(1)，超出最高层范围的条目会留在最高层并在每次重新分配时重新计算。
+ *
+ * 条目以"数组结构"保存，每个桶是一个侵入式双向链表，不为每个条目分配对象。
+ * 条目通过整数句柄标识：高位是槽位，低 8 位是代数，槽位被释放后旧句柄自动失效，
+ * 因此对已经到期或已经取消的句柄调用 {@link #cancel(int)} 是安全的。
+ *
+ * 每个条目携带一个 int 标签和一个 long 载荷 (例如打包后的方块位置)，由调用者自行解释。
+ *
+ * 此类不是线程安全的，只能在拥有它的线程 (服务器主线程) 上使用。
+ */
+public class TimingWheel {
+    public static final int INVALID_HANDLE = 0;
+
+    public static final int SLOT_BITS = 6;
+    public static final int SLOTS_PER_LEVEL = 1 << SLOT_BITS;
+    public static final int LEVELS = 4;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    private static final int GENERATION_BITS = 8;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+    private static final int NONE = -1;
+
+    /**
+     * 到期条目的回调。
+     */
+    @FunctionalInterface
+    public interface ExpiryHandler {
+        /**
+         * @param handle  到期条目的句柄，回调返回后即失效。
+         * @param tag     添加条目时传入的标签。
+         * @param payload 添加条目时传入的载荷。
+         */
+        void onExpired(int handle, int tag, long payload);
+    }
+
+    private long currentTick;
+    private int size;
+
+    // 桶的链表头，下标为 level * SLOTS_PER_LEVEL + slot
+    private final int[] bucketHeads = new int[LEVELS * SLOTS_PER_LEVEL];
+
+    // 每个条目的状态
+    private int capacity;
+    private int[] generation = new int[0];
+    private long[] deadline = new long[0];
+    private int[] tag = new int[0];
+    private long[] payload = new long[0];
+    private int[] bucket = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    public TimingWheel() {
+        Arrays.fill(bucketHeads, NONE);
+        grow(64);
+    }
+
+    /**
+     * 添加一个在指定刻数后到期的条目。
+     *
+     * @param delayTicks 距离到期的刻数，小于 1 时按 1 处理 (在下一次 {@link #advance} 时到期)。
+     * @return 条目的句柄。
+     */
+    public int schedule(long delayTicks, int tag, long payload) {
+        if (freeCount == 0) {
+            grow(capacity * 2);
+        }
+        int slot = freeSlots[--freeCount];
+        this.deadline[slot] = currentTick + Math.max(1L, delayTicks);
+        this.tag[slot] = tag;
+        this.payload[slot] = payload;
+        link(slot);
+        size++;
+        return handleOf(slot);
+    }
+
+    /**
+     * 取消一个条目。句柄已经到期或已被取消时不做任何事。
+     *
+     * @return 如果条目被取消，则返回 true。
+     */
+    public boolean cancel(int handle) {
+        int slot = handle >>> GENERATION_BITS;
+        if (!isLive(handle)) {
+            return false;
+        }
+        unlink(slot);
+        free(slot);
+        return true;
+    }
+
+    /**
+     * 检查句柄是否仍然指向一个尚未到期的条目。
+     */
+    public boolean isLive(int handle) {
+        int slot = handle >>> GENERATION_BITS;
+        return handle != INVALID_HANDLE && slot < capacity && bucket[slot] != NONE
+                && (handle & GENERATION_MASK) == generation[slot];
+    }
+
+    /**
+     * 获取条目剩余的刻数。句柄无效时返回 -1。
+     */
+    public long remainingTicks(int handle) {
+        if (!isLive(handle)) {
+            return -1L;
+        }
+        return deadline[handle >>> GENERATION_BITS] - currentTick;
+    }
+
+    /**
+     * 推进一刻，并对所有在这一刻到期的条目调用回调。
+     * 回调中可以安全地添加或取消条目。
+     */
+    public void advance(ExpiryHandler handler) {
+        currentTick++;
+        // 低层转完一圈时，把上一层当前桶中的条目重新分配到更低的层
+        for (int level = 1; level < LEVELS; level++) {
+            long shifted = currentTick >>> (SLOT_BITS * (level - 1));
+            if ((shifted & SLOT_MASK) != 0) {
+                break;
+            }
+            cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+        }
+        if (size == 0) {
+            return;
+        }
+        int bucketIndex = (int) (currentTick & SLOT_MASK);
+        // 第 0 层当前桶中的条目都在这一刻到期；回调中新添加的条目至少在下一刻才到期，不会进入这个桶，
+        // 回调取消的条目会直接从链表中移除，因此每次都从链表头取出即可
+        int slot;
+        while ((slot = bucketHeads[bucketIndex]) != NONE) {
+            int handle = handleOf(slot);
+            int expiredTag = tag[slot];
+            long expiredPayload = payload[slot];
+            unlink(slot);
+            free(slot);
+            handler.onExpired(handle, expiredTag, expiredPayload);
+        }
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * 获取尚未到期的条目数量。
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 遍历所有尚未到期的条目，用于保存状态。
+     */
+    public void forEach(EntryVisitor visitor) {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (bucket[slot] != NONE) {
+                visitor.visit(handleOf(slot), tag[slot], payload[slot], deadline[slot] - currentTick);
+            }
+        }
+    }
+
+    /**
+     * 条目遍历回调。
+     */
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(int handle, int tag, long payload, long remainingTicks);
+    }
+
+    /**
+     * 移除所有条目。
+     */
+    public void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (bucket[slot] != NONE) {
+                unlink(slot);
+                free(slot);
+            }
+        }
+    }
+
+    private void cascade(int level, int slotIndex) {
+        int bucketIndex = level * SLOTS_PER_LEVEL + slotIndex;
+        int slot = bucketHeads[bucketIndex];
+        bucketHeads[bucketIndex] = NONE;
+        while (slot != NONE) {
+            int following = next[slot];
+            link(slot);
+            slot = following;
+        }
+    }
+
+    private void link(int slot) {
+        long delta = deadline[slot] - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int bucketIndex = level * SLOTS_PER_LEVEL + (int) ((deadline[slot] >>> (SLOT_BITS * level)) & SLOT_MASK);
+        int head = bucketHeads[bucketIndex];
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        bucketHeads[bucketIndex] = slot;
+        bucket[slot] = bucketIndex;
+    }
+
+    private void unlink(int slot) {
+        int before = prev[slot];
+        int after = next[slot];
+        if (before != NONE) {
+            next[before] = after;
+        } else {
+            bucketHeads[bucket[slot]] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        next[slot] = NONE;
+        prev[slot] = NONE;
+        bucket[slot] = NONE;
+    }
+
+    private void free(int slot) {
+        int nextGeneration = (generation[slot] + 1) & GENERATION_MASK;
+        generation[slot] = nextGeneration == 0 ? 1 : nextGeneration;
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    private int handleOf(int slot) {
+        return (slot << GENERATION_BITS) | generation[slot];
+    }
+
+    private void grow(int newCapacity) {
+        int oldCapacity = capacity;
+        generation = Arrays.copyOf(generation, newCapacity);
+        deadline = Arrays.copyOf(deadline, newCapacity);
+        tag = Arrays.copyOf(tag, newCapacity);
+        payload = Arrays.copyOf(payload, newCapacity);
+        bucket = Arrays.copyOf(bucket, newCapacity);
+        next = Arrays.copyOf(next, newCapacity);
+        prev = Arrays.copyOf(prev, newCapacity);
+        freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+        for (int slot = newCapacity - 1; slot >= oldCapacity; slot--) {
+            generation[slot] = 1;
+            bucket[slot] = NONE;
+            freeSlots[freeCount++] = slot;
+        }
+        capacity = newCapacity;
+    }
+}